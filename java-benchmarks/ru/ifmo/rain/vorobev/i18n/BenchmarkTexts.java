@@ -0,0 +1,38 @@
+package ru.ifmo.rain.vorobev.i18n;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+
+/**
+ * Benchmark inputs of the {@link CorpusGenerator} with the default mix.
+ * Texts are generated with a fixed seed and cached in the temporary directory, as big ones take a while.
+ */
+class BenchmarkTexts {
+    private static final long SEED = 4242;
+
+    private BenchmarkTexts() {
+    }
+
+    /**
+     * Returns a file with about {@code size} chars of text in the locale, generating it if needed.
+     */
+    static Path file(String localeName, long size) throws IOException {
+        Path path = Paths.get(System.getProperty("java.io.tmpdir"),
+                "text-statistics-" + localeName + "-" + size + ".txt");
+        if (Files.exists(path)) {
+            return path;
+        }
+        Path tmp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+        new CorpusGenerator(getLocale(localeName), CorpusGenerator.Mix.DEFAULT).write(tmp, size, SEED);
+        Files.move(tmp, path);
+        return path;
+    }
+
+    static Locale getLocale(String s) {
+        String[] splitted = s.split("_");
+        return splitted.length == 1 ? new Locale(splitted[0]) : new Locale(splitted[0], splitted[1]);
+    }
+}
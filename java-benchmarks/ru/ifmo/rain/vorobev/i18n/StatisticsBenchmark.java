@@ -0,0 +1,174 @@
+package ru.ifmo.rain.vorobev.i18n;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.BreakIterator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the statistics pipeline stages on generated texts from 1 KB to 1 GB.
+ * Texts for the in-memory stages are kept as the same chunks which {@link TextStatistics} analyzes,
+ * so the biggest sizes need a big heap (e.g. {@code -jvmArgsAppend -Xmx8g}).
+ * Run with {@link #main}, which adds the gc profiler to report allocation rate along with throughput;
+ * usual JMH options are accepted too, e.g. {@code -p size=1MB -p locale=ru_RU}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Dfile.encoding=UTF-8")
+public class StatisticsBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Input {
+        @Param({"en_US", "es_ES", "ar_EG", "ar_PS", "ru_RU", "zh"})
+        String locale;
+
+        @Param({"1KB", "1MB", "64MB", "1GB"})
+        String size;
+
+        Path file;
+        TextAnalyzer analyzer;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            file = BenchmarkTexts.file(locale, CorpusGenerator.parseSize(size));
+            analyzer = new TextAnalyzer();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Chunks {
+        @Param({"true", "false"})
+        boolean prescan;
+
+        Tokenizer tokenizer;
+        List<String> chunks = new ArrayList<>();
+        List<int[]> wordStarts = new ArrayList<>();
+
+        @Setup(Level.Trial)
+        public void setUp(Input input) throws IOException {
+            Locale locale = BenchmarkTexts.getLocale(input.locale);
+            tokenizer = new Tokenizer(locale, prescan);
+            LineReader reader = new LineReader(input.file, StandardCharsets.UTF_8);
+            try (ChunkReader chunkReader = new ChunkReader(reader, locale, line -> {},
+                    (text, boundary) -> !tokenizer.crossesBoundary(text, boundary))) {
+                String chunk;
+                while ((chunk = chunkReader.nextChunk()) != null) {
+                    chunks.add(chunk);
+                    wordStarts.add(getWordStarts(chunk, locale));
+                }
+            }
+        }
+
+        private static int[] getWordStarts(String text, Locale locale) {
+            BreakIterator wordIterator = BreakIterator.getWordInstance(locale);
+            wordIterator.setText(text);
+            List<Integer> starts = new ArrayList<>();
+            for (int i = wordIterator.first(); i != BreakIterator.DONE && i < text.length(); i = wordIterator.next()) {
+                starts.add(i);
+            }
+            return starts.stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Statistics {
+        TextStatistics textStatistics;
+        Path output;
+
+        @Setup(Level.Trial)
+        public void setUp(Input input) throws IOException {
+            textStatistics = new TextStatistics(input.locale, input.file.toString());
+            output = Files.createTempFile("text-statistics-", ".html");
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            Files.deleteIfExists(output);
+        }
+    }
+
+    @Benchmark
+    public TextStatistics constructor(Input input) {
+        return new TextStatistics(input.locale, input.file.toString());
+    }
+
+    /**
+     * Analysis with tokenizers and bundles cached between documents.
+     */
+    @Benchmark
+    public TextStatistics analyze(Input input) throws IOException {
+        return input.analyzer.analyze(input.file, BenchmarkTexts.getLocale(input.locale));
+    }
+
+    /**
+     * Extraction of all kinds of objects, which replaced the separate sentence and word passes.
+     */
+    @Benchmark
+    public void tokenize(Chunks chunks, Blackhole blackhole) {
+        for (String chunk : chunks.chunks) {
+            List<FrequencyTable> tables = createTables();
+            chunks.tokenizer.tokenize(chunk, tables);
+            blackhole.consume(tables);
+        }
+    }
+
+    /**
+     * Parsing of numbers, currencies and dates at every word start, without the prescan.
+     */
+    @Benchmark
+    public void parseComplex(Chunks chunks, Blackhole blackhole) {
+        List<FrequencyTable> tables = createTables();
+        for (int i = 0; i < chunks.chunks.size(); i++) {
+            String chunk = chunks.chunks.get(i);
+            for (int start : chunks.wordStarts.get(i)) {
+                blackhole.consume(chunks.tokenizer.parseComplex(chunk, start, tables));
+            }
+        }
+        blackhole.consume(tables);
+    }
+
+    @Benchmark
+    public void getStatistic(Statistics statistics, Blackhole blackhole) {
+        TextStatistics textStatistics = statistics.textStatistics;
+        for (int i = 0; i < textStatistics.stats.length; i++) {
+            blackhole.consume(textStatistics.getStatistic(textStatistics.objectsCount.get(i), textStatistics.stats[i]));
+        }
+    }
+
+    @Benchmark
+    public void createStatistics(Statistics statistics) {
+        statistics.textStatistics.createStatistics("en", statistics.output.toString(), false);
+    }
+
+    private static List<FrequencyTable> createTables() {
+        List<FrequencyTable> tables = new ArrayList<>();
+        for (int i = 0; i < TextStatistics.STATS_COUNT; i++) {
+            tables.add(new FrequencyTable());
+        }
+        return tables;
+    }
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .include(StatisticsBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
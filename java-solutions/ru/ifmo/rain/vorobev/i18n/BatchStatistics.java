@@ -0,0 +1,176 @@
+package ru.ifmo.rain.vorobev.i18n;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Writes reports for all files of a directory or matching a glob, and the corpus report which merges
+ * statistics of all of them. Files are analyzed concurrently by a fixed number of workers with one
+ * shared {@link TextAnalyzer}. Files are merged in their order as soon as they are analyzed, and at most
+ * {@code 2 * threads} of them are analyzed ahead, so the statistics of the other files are not kept.
+ * Without the input locale, the locale of every file is detected, and the corpus is reported in the locale
+ * of the most bytes.
+ */
+class BatchStatistics {
+    static final String CORPUS_REPORT = "corpus.html";
+
+    private final TextAnalyzer analyzer;
+    /**
+     * Input locale of all files or {@code null} if it is detected for every file.
+     */
+    private final Locale inputLocale;
+    private final String outputLocale;
+    private final int threads;
+    /**
+     * If set, the corpus report ends with the metrics of the analyzer.
+     */
+    boolean performanceSection = false;
+    /**
+     * Formats of all reports, files are named by the first one if there are several, see
+     * {@link TextStatistics#createStatistics(String, String, boolean, List)}.
+     */
+    List<ReportFormat> formats = List.of(ReportFormat.HTML);
+
+    BatchStatistics(TextAnalyzer analyzer, Locale inputLocale, String outputLocale, int threads) {
+        this.analyzer = analyzer;
+        this.inputLocale = inputLocale;
+        this.outputLocale = outputLocale;
+        this.threads = threads;
+    }
+
+    /**
+     * Writes the report of every input file as {@code <relative path>.html} to the output directory,
+     * and the corpus report as {@value CORPUS_REPORT}, with the extensions of the formats instead of
+     * {@code .html} if they are other. Files which can't be read are reported to
+     * {@code System.err} and skipped. An input file which would be reported as the corpus is rejected.
+     * Returns the corpus statistics.
+     */
+    TextStatistics run(String input, Path outputDir) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        Path baseDir = getBaseDir(input);
+        List<Path> files = findFiles(input, baseDir);
+        ArrayList<FrequencyTable> corpusCount = TextAnalyzer.createTables();
+        long bytes = 0;
+        int analyzed = 0;
+        Map<Locale, Long> localeBytes = new HashMap<>();
+        Path corpusReport = outputDir.resolve(getReportFile(CORPUS_REPORT));
+        List<Path> reports = new ArrayList<>();
+        for (Path file : files) {
+            Path report = outputDir.resolve(getReportFile(baseDir.relativize(file) + ".html"));
+            if (report.normalize().equals(corpusReport.normalize())) {
+                throw new IOException("Report of " + file + " would overwrite the corpus report " + corpusReport);
+            }
+            reports.add(report);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            Deque<Future<TextStatistics>> results = new ArrayDeque<>();
+            int submitted = 0;
+            for (int i = 0; i < files.size(); i++) {
+                for (; submitted < files.size() && submitted < i + 2 * threads; submitted++) {
+                    Path file = files.get(submitted);
+                    Path report = reports.get(submitted);
+                    results.add(executor.submit(() -> analyzeFile(file, report)));
+                }
+                try {
+                    TextStatistics fileStatistics = results.poll().get();
+                    for (int j = 0; j < corpusCount.size(); j++) {
+                        corpusCount.get(j).merge(fileStatistics.objectsCount.get(j));
+                    }
+                    long size = Files.size(files.get(i));
+                    localeBytes.merge(fileStatistics.inputLocale, size, Long::sum);
+                    bytes += size;
+                    analyzed++;
+                } catch (ExecutionException e) {
+                    System.err.println("Reading error: " + files.get(i) + ": " + e.getCause().getMessage());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Locale corpusLocale = inputLocale;
+        if (corpusLocale == null) {
+            corpusLocale = localeBytes.entrySet().stream()
+                    .max(Map.Entry.<Locale, Long>comparingByValue()
+                            .thenComparing(entry -> entry.getKey().toLanguageTag(), Comparator.reverseOrder()))
+                    .map(Map.Entry::getKey)
+                    .orElse(LocaleDetector.DEFAULT_LOCALE);
+        }
+        TextStatistics corpus = new TextStatistics(analyzer, corpusLocale, input, corpusCount);
+        corpus.performanceSection = performanceSection;
+        Files.createDirectories(outputDir);
+        corpus.createStatistics(outputLocale, corpusReport.toString(), false, formats);
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d files, %.2f MB in %.3f s: %.2f files/s, %.2f MB/s%n", analyzed,
+                bytes / (double) (1 << 20), seconds, analyzed / seconds, bytes / (double) (1 << 20) / seconds);
+        return corpus;
+    }
+
+    private TextStatistics analyzeFile(Path file, Path report) throws IOException {
+        Locale locale = inputLocale == null ? analyzer.detectLocale(file) : inputLocale;
+        TextStatistics statistics = analyzer.analyze(file, locale);
+        Files.createDirectories(report.toAbsolutePath().getParent());
+        statistics.createStatistics(outputLocale, report.toString(), false, formats);
+        return statistics;
+    }
+
+    private String getReportFile(String htmlFile) {
+        return TextStatistics.getReportFile(htmlFile, formats.get(0));
+    }
+
+    /**
+     * Returns the directory itself, the parent of a file or the longest parent of the glob without special chars.
+     */
+    private static Path getBaseDir(String input) {
+        int globIndex = getGlobIndex(input);
+        if (globIndex < 0) {
+            Path path = Paths.get(input);
+            if (Files.isDirectory(path)) {
+                return path;
+            }
+            return path.getParent() == null ? Paths.get("") : path.getParent();
+        }
+        String prefix = input.substring(0, globIndex);
+        int separator = Math.max(prefix.lastIndexOf('/'), prefix.lastIndexOf(File.separatorChar));
+        return Paths.get(separator < 0 ? "" : prefix.substring(0, separator + 1));
+    }
+
+    private static List<Path> findFiles(String input, Path baseDir) throws IOException {
+        PathMatcher matcher = getGlobIndex(input) < 0
+                ? path -> Files.isDirectory(Paths.get(input)) || path.equals(Paths.get(input))
+                : FileSystems.getDefault().getPathMatcher("glob:" + input);
+        try (Stream<Path> paths = Files.walk(baseDir)) {
+            return paths.filter(Files::isRegularFile)
+                    .filter(matcher::matches)
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static int getGlobIndex(String input) {
+        for (int i = 0; i < input.length(); i++) {
+            if ("*?[{".indexOf(input.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -2,17 +2,35 @@ package ru.ifmo.rain.vorobev.i18n;
 
 public class BlockStats {
     public final static String nullS = "-";
-    public int count = 0;
-    public int unique = 0;
+    public final static int TOP_SIZE = 10;
+    public final static int HISTOGRAM_BUCKETS = 16;
+    public long count = 0;
+    public long unique = 0;
     public String minObject = nullS;
     public String maxObject = nullS;
-    public int sumLength = 0;
+    public long sumLength = 0;
     public String objectMinLength = nullS;
     public String objectMaxLength = nullS;
+    /**
+     * At most {@value TOP_SIZE} most frequent objects from the most frequent, objects of the same count
+     * in the order of keys, with their counts. Approximate counts may be less than real ones by at most
+     * {@code topError}.
+     */
+    public String[] topObjects = new String[0];
+    public long[] topCounts = new long[0];
+    public long topError = 0;
+    /**
+     * Relative standard error of {@code unique}, if it's estimated.
+     */
+    public double uniqueError = 0;
+    /**
+     * Numbers of objects by their lengths, see {@link #lengthBucket(int)}.
+     */
+    public long[] lengthHistogram = new long[HISTOGRAM_BUCKETS];
 
     public BlockStats(){}
 
-    public BlockStats(int count,int unique,String minObject,String maxObject,int sumLength,String objectMinLength,String objectMaxLength){
+    public BlockStats(long count,long unique,String minObject,String maxObject,long sumLength,String objectMinLength,String objectMaxLength){
         this.count = count;
         this.unique = unique;
         this.minObject = minObject;
@@ -22,6 +40,25 @@ public class BlockStats {
         this.objectMaxLength = objectMaxLength;
     }
 
+    /**
+     * Returns the bucket of the length: 0 for empty objects, {@code b} for lengths from {@code 2^(b-1)}
+     * to {@code 2^b - 1}, and the last bucket for all longer ones.
+     */
+    public static int lengthBucket(int length) {
+        return Math.min(32 - Integer.numberOfLeadingZeros(length), HISTOGRAM_BUCKETS - 1);
+    }
+
+    public static String bucketLabel(int bucket) {
+        if (bucket == 0) {
+            return "0";
+        }
+        int from = 1 << (bucket - 1);
+        if (bucket == HISTOGRAM_BUCKETS - 1) {
+            return from + "+";
+        }
+        return bucket == 1 ? "1" : from + "–" + ((from << 1) - 1);
+    }
+
     public boolean isEqualTo(BlockStats rightAnswers){
         return (count == rightAnswers.count && unique == rightAnswers.unique && minObject.equals(rightAnswers.minObject)
         && maxObject.equals(rightAnswers.maxObject) && sumLength == rightAnswers.sumLength
@@ -0,0 +1,175 @@
+package ru.ifmo.rain.vorobev.i18n;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * State of the incremental analysis of a growing file: counts of the objects of the file up to the offset,
+ * except of the unfinished sentences at the end, which are kept as text to be continued by the appended lines.
+ * The prefix of the file up to the offset is identified by its size and the checksums of its first and last
+ * {@value #HASH_WINDOW} bytes, so rewriting or truncation of the file is noticed, while the rest of the prefix
+ * is never read again.
+ */
+class Checkpoint {
+    private static final int MAGIC = 0x54534350;
+    private static final int VERSION = 5;
+    private static final int HASH_WINDOW = 1 << 16;
+
+    final Locale locale;
+    final Charset charset;
+    long offset = 0;
+    long headHash = 0;
+    long tailHash = 0;
+    String carry = "";
+    ArrayList<FrequencyTable> objectsCount = TextAnalyzer.createTables();
+
+    Checkpoint(Locale locale, Charset charset) {
+        this.locale = locale;
+        this.charset = charset;
+    }
+
+    /**
+     * Checks that the file starts with the same prefix as the one which was analyzed.
+     */
+    boolean matches(FileChannel channel) throws IOException {
+        return channel.size() >= offset && headHash == hash(channel, 0, Math.min(offset, HASH_WINDOW))
+                && tailHash == hash(channel, Math.max(0, offset - HASH_WINDOW), offset);
+    }
+
+    /**
+     * Moves the checkpoint to the new offset of the same file.
+     */
+    void moveTo(FileChannel channel, long newOffset, String newCarry) throws IOException {
+        offset = newOffset;
+        carry = newCarry;
+        headHash = hash(channel, 0, Math.min(offset, HASH_WINDOW));
+        tailHash = hash(channel, Math.max(0, offset - HASH_WINDOW), offset);
+    }
+
+    private static long hash(FileChannel channel, long start, long end) throws IOException {
+        CRC32 crc = new CRC32();
+        if (end > start) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) (end - start));
+            readFully(channel, buffer, start);
+            crc.update(buffer.flip());
+        }
+        return crc.getValue();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long start) throws IOException {
+        while (buffer.hasRemaining() && channel.read(buffer, start + buffer.position()) >= 0) {
+            // read the whole buffer
+        }
+    }
+
+    /**
+     * Returns the offset after the last line terminator of {@link LineReader} in the part of the file,
+     * or the start if there is none. Lines before it are complete, lines after it may be continued by appended
+     * text, so a {@code '\r'} which ends the part isn't taken, as it may be followed by {@code '\n'}.
+     * Terminators are looked for as encoded by the charset at the char boundaries of its fixed-size units.
+     * Returns the start for charsets which don't encode them as one unit of one, two or four bytes,
+     * so these files are always analyzed from the start.
+     */
+    long lastLineEnd(FileChannel channel, long start, long end) throws IOException {
+        byte[] lf = encode(String.valueOf(LineReader.LF));
+        byte[] cr = encode(String.valueOf(LineReader.CR));
+        int unit = lf.length;
+        if ((unit != 1 && unit != 2 && unit != 4) || cr.length != unit
+                || encode(LineReader.LF + "" + LineReader.LF).length != 2 * unit) {
+            return start;
+        }
+        end -= (end - start) % unit;
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 13);
+        for (long blockEnd = end; blockEnd > start; blockEnd -= buffer.capacity()) {
+            long blockStart = Math.max(start, blockEnd - buffer.capacity());
+            buffer.clear().limit((int) (blockEnd - blockStart));
+            readFully(channel, buffer, blockStart);
+            for (int i = buffer.limit() - unit; i >= 0; i -= unit) {
+                long lineEnd = blockStart + i + unit;
+                if (matches(buffer, i, lf) || (matches(buffer, i, cr) && lineEnd < end)) {
+                    return lineEnd;
+                }
+            }
+        }
+        return start;
+    }
+
+    /**
+     * Returns the encoded chars, or nothing if the charset can't encode them.
+     */
+    private byte[] encode(String chars) {
+        try {
+            ByteBuffer encoded = charset.newEncoder().encode(CharBuffer.wrap(chars));
+            byte[] bytes = new byte[encoded.remaining()];
+            encoded.get(bytes);
+            return bytes;
+        } catch (CharacterCodingException | UnsupportedOperationException e) {
+            return new byte[0];
+        }
+    }
+
+    private static boolean matches(ByteBuffer buffer, int index, byte[] bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            if (buffer.get(index + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the checkpoint, returns {@code null} if there is no checkpoint or it's for another locale, charset
+     * or blocks.
+     */
+    static Checkpoint read(Path file, Locale locale, Charset charset) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        ByteBuffer in = Snapshot.readAll(file);
+        try {
+            if (in.getInt() != MAGIC || in.getInt() != VERSION || !Snapshot.readString(in).equals(locale.toLanguageTag())
+                    || !Snapshot.readString(in).equals(charset.name())
+                    || !Snapshot.readBlockNames(in).equals(List.of(TextStatistics.STATS))) {
+                return null;
+            }
+            Checkpoint checkpoint = new Checkpoint(locale, charset);
+            checkpoint.offset = in.getLong();
+            checkpoint.headHash = in.getLong();
+            checkpoint.tailHash = in.getLong();
+            checkpoint.carry = Snapshot.readString(in);
+            checkpoint.objectsCount = Snapshot.readTables(in);
+            return checkpoint;
+        } catch (RuntimeException e) {
+            throw new IOException("Checkpoint " + file + " is corrupted", e);
+        }
+    }
+
+    /**
+     * Writes the checkpoint to a temporary file which then replaces the file,
+     * so the previous checkpoint is kept if writing fails.
+     */
+    void write(Path file) throws IOException {
+        Snapshot.writeAtomically(file, out -> {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            Snapshot.writeString(out, locale.toLanguageTag());
+            Snapshot.writeString(out, charset.name());
+            Snapshot.writeBlockNames(out);
+            out.writeLong(offset);
+            out.writeLong(headHash);
+            out.writeLong(tailHash);
+            Snapshot.writeString(out, carry);
+            Snapshot.writeTables(out, objectsCount);
+        });
+    }
+}
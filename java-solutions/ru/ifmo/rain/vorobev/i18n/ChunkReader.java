@@ -0,0 +1,268 @@
+package ru.ifmo.rain.vorobev.i18n;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.text.BreakIterator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+
+/**
+ * Reads text by chunks which always end on a sentence boundary accepted by the boundary check, so no
+ * sentence, word, number or date is split between two chunks. Every read line is passed to the line consumer, lines inside of a chunk
+ * are joined with a space. Only the current chunk and the unfinished sentences are kept in memory.
+ * Starts of paragraphs, i.e. of lines after empty lines, are kept for every chunk.
+ * <p>
+ * Sentence boundaries of the pending text are kept as it grows, and only the text after the last stable ones
+ * is scanned again, so a sentence much longer than a chunk is read in linear time.
+ * <p>
+ * The pending text is bounded by the maximal chunk length: a sentence which is longer than that is split
+ * after a whitespace accepted by the boundary check, so it's counted as several sentences, but the memory taken
+ * doesn't grow with it. Parts of over-long lines, see {@link LineReader}, are joined without a space.
+ */
+class ChunkReader implements Closeable {
+    static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+    static final int MAX_CHUNK_LENGTH = 1 << 22;
+    private static final int STABLE_SENTENCES = 3;
+
+    private final LineReader reader;
+    private final BreakIterator sentenceIterator;
+    private final Consumer<LineReader.Line> lineConsumer;
+    private final BiPredicate<String, Integer> boundaryCheck;
+    private final int chunkSize;
+    private final int maxChunkLength;
+    private final StringBuilder pending = new StringBuilder();
+    /**
+     * Offsets of paragraph starts in the pending text and in the last chunk.
+     */
+    private final List<Integer> paragraphs = new ArrayList<>();
+    /**
+     * Sentence boundaries found in the pending text, in ascending order.
+     */
+    private final List<Integer> boundaries = new ArrayList<>();
+    private int[] chunkParagraphs = new int[0];
+    private boolean finished = false;
+
+    ChunkReader(LineReader reader, Locale locale, Consumer<LineReader.Line> lineConsumer,
+                BiPredicate<String, Integer> boundaryCheck) {
+        this(reader, locale, lineConsumer, boundaryCheck, DEFAULT_CHUNK_SIZE);
+    }
+
+    ChunkReader(LineReader reader, Locale locale, Consumer<LineReader.Line> lineConsumer,
+                BiPredicate<String, Integer> boundaryCheck, int chunkSize) {
+        this(reader, locale, lineConsumer, boundaryCheck, chunkSize, Math.max(chunkSize, MAX_CHUNK_LENGTH));
+    }
+
+    ChunkReader(LineReader reader, Locale locale, Consumer<LineReader.Line> lineConsumer,
+                BiPredicate<String, Integer> boundaryCheck, int chunkSize, int maxChunkLength) {
+        this.reader = reader;
+        this.sentenceIterator = BreakIterator.getSentenceInstance(locale);
+        this.lineConsumer = lineConsumer;
+        this.boundaryCheck = boundaryCheck;
+        this.chunkSize = chunkSize;
+        this.maxChunkLength = maxChunkLength;
+    }
+
+    /**
+     * Puts the text before the input, e.g. the {@link #remainder()} of the previous part of the input.
+     */
+    void prepend(String text) {
+        pending.insert(0, text);
+        paragraphs.replaceAll(offset -> offset + text.length());
+        boundaries.clear();
+    }
+
+    /**
+     * Returns next chunk of text or {@code null} if the whole input has been read.
+     */
+    String nextChunk() throws IOException {
+        return nextChunk(false);
+    }
+
+    /**
+     * Returns next chunk of text, which is never continued by text appended to the input,
+     * or {@code null} if the rest of the input may be continued, see {@link #remainder()}.
+     */
+    String nextStableChunk() throws IOException {
+        return nextChunk(true);
+    }
+
+    /**
+     * Returns the text which is read but not returned as chunks, i.e. the last unfinished sentences after
+     * {@link #nextStableChunk()} has returned {@code null}.
+     */
+    String remainder() {
+        return pending.toString();
+    }
+
+    /**
+     * Returns the offsets in the last chunk where paragraphs start, in ascending order.
+     */
+    int[] paragraphs() {
+        return chunkParagraphs;
+    }
+
+    private String nextChunk(boolean stable) throws IOException {
+        int limit = chunkSize;
+        while (true) {
+            while (!finished && pending.length() < limit) {
+                LineReader.Line line = reader.readLine();
+                if (line == null) {
+                    finished = true;
+                } else {
+                    lineConsumer.accept(line);
+                    line.appendTo(pending);
+                    if (line.isContinued()) {
+                        continue;
+                    }
+                    pending.append(" ");
+                    if (isBlank(line) && (paragraphs.isEmpty()
+                            || paragraphs.get(paragraphs.size() - 1) != pending.length())) {
+                        paragraphs.add(pending.length());
+                    }
+                }
+            }
+            if (finished && !stable) {
+                if (pending.length() == 0) {
+                    return null;
+                }
+                String chunk = pending.toString();
+                pending.setLength(0);
+                boundaries.clear();
+                takeParagraphs(chunk.length());
+                return chunk;
+            }
+            int boundary = safeBoundary();
+            if (boundary > 0) {
+                String chunk = pending.substring(0, boundary);
+                pending.delete(0, boundary);
+                takeBoundaries(boundary);
+                takeParagraphs(boundary);
+                return chunk;
+            }
+            if (finished) {
+                return null;
+            }
+            if (pending.length() >= maxChunkLength) {
+                boundary = wordBoundary();
+                String chunk = pending.substring(0, boundary);
+                pending.delete(0, boundary);
+                boundaries.clear();
+                takeParagraphs(boundary);
+                return chunk;
+            }
+            // one sentence is longer than the chunk, so read as much again, which keeps rescans linear in total
+            limit = Math.min(pending.length() + Math.max(chunkSize, pending.length()), maxChunkLength);
+        }
+    }
+
+    /**
+     * Moves the paragraph starts before the end of the chunk to the chunk.
+     */
+    private void takeParagraphs(int chunkLength) {
+        int count = 0;
+        while (count < paragraphs.size() && paragraphs.get(count) < chunkLength) {
+            count++;
+        }
+        chunkParagraphs = new int[count];
+        for (int i = 0; i < count; i++) {
+            chunkParagraphs[i] = paragraphs.get(i);
+        }
+        paragraphs.subList(0, count).clear();
+        paragraphs.replaceAll(offset -> offset - chunkLength);
+    }
+
+    private static boolean isBlank(LineReader.Line line) {
+        for (int i = 0; i < line.length(); i++) {
+            if (!Character.isWhitespace(line.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Removes the boundaries of the returned chunk and moves the rest to the pending text.
+     */
+    private void takeBoundaries(int chunkLength) {
+        int count = 0;
+        while (count < boundaries.size() && boundaries.get(count) <= chunkLength) {
+            count++;
+        }
+        boundaries.subList(0, count).clear();
+        boundaries.replaceAll(offset -> offset - chunkLength);
+    }
+
+    /**
+     * The last sentence may be continued by the next lines and the boundary before it depends on
+     * the beginning of that sentence, so two last sentences are left for the next chunk.
+     * Boundaries are found by forward iteration, as backward one doesn't always agree with it.
+     * Boundaries before the last {@value STABLE_SENTENCES} known ones are kept, as {@link #isStable} does,
+     * and the text after them is scanned again.
+     */
+    private int safeBoundary() {
+        int kept = Math.max(boundaries.size() - STABLE_SENTENCES, 0);
+        int from = kept == 0 ? 0 : boundaries.get(kept - 1);
+        boundaries.subList(kept, boundaries.size()).clear();
+        boundaries.addAll(getBoundaries(pending.substring(from), from));
+        for (int i = boundaries.size() - 2; i >= 0; i--) {
+            if (isStable(boundaries, i) && checkBoundary(boundaries.get(i))) {
+                return boundaries.get(i);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the end of the first part of the over-long sentence: after the last whitespace in the second half
+     * of the pending text which is accepted by the boundary check, or the middle of the text if there is none.
+     */
+    private int wordBoundary() {
+        int end = pending.length() - 2 * Tokenizer.COMPLEX_MAX_LENGTH;
+        for (int i = end - 1; i > pending.length() / 2; i--) {
+            if (Character.isWhitespace(pending.charAt(i)) && checkBoundary(i + 1)) {
+                return i + 1;
+            }
+        }
+        int middle = pending.length() / 2;
+        return Character.isHighSurrogate(pending.charAt(middle - 1)) ? middle - 1 : middle;
+    }
+
+    /**
+     * Checks the boundary on the text around it, which holds every object that may go through it.
+     */
+    private boolean checkBoundary(int boundary) {
+        int start = Math.max(0, boundary - 2 * Tokenizer.COMPLEX_MAX_LENGTH);
+        int end = Math.min(pending.length(), boundary + 2 * Tokenizer.COMPLEX_MAX_LENGTH);
+        return boundaryCheck.test(pending.substring(start, end), boundary - start);
+    }
+
+    private List<Integer> getBoundaries(String text, int offset) {
+        sentenceIterator.setText(text);
+        List<Integer> boundaries = new ArrayList<>();
+        int curIndex = sentenceIterator.next();
+        while (curIndex != BreakIterator.DONE && curIndex < text.length()) {
+            boundaries.add(offset + curIndex);
+            curIndex = sentenceIterator.next();
+        }
+        return boundaries;
+    }
+
+    /**
+     * Checks that the sentences before the boundary are the same when the text after it is cut off,
+     * as a sentence break may depend on the text after the next one.
+     */
+    private boolean isStable(List<Integer> boundaries, int index) {
+        int start = index < STABLE_SENTENCES ? 0 : boundaries.get(index - STABLE_SENTENCES);
+        int from = index < STABLE_SENTENCES ? 0 : index - STABLE_SENTENCES + 1;
+        return getBoundaries(pending.substring(start, boundaries.get(index)), start)
+                .equals(boundaries.subList(from, index));
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,201 @@
+package ru.ifmo.rain.vorobev.i18n;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.DateFormat;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates synthetic texts: lines of sentences made of words of the locale's language mixed with
+ * numbers, currencies and dates in all formats which {@link Tokenizer} recognizes, in the proportions
+ * of a {@link Mix}. Texts are streamed line by line, so texts of any size take constant memory,
+ * and the same seed gives the same text.
+ */
+class CorpusGenerator {
+    static final Map<String, String[]> WORDS = Map.of(
+            "en", new String[]{"the", "price", "was", "paid", "on", "Monday", "and", "we", "left", "early",
+                    "statistics", "of", "this", "text", "are", "counted", "again", "I", "want", "more"},
+            "es", new String[]{"hola", "el", "precio", "fue", "pagado", "el", "lunes", "y", "nos", "fuimos",
+                    "temprano", "rápido", "texto", "cuenta", "otra", "vez", "quiero", "más", "año", "niño"},
+            "ar", new String[]{"أين", "يعطى", "أعطني", "السعر", "كان", "مدفوعا", "يوم", "الاثنين", "ثم",
+                    "غادرنا", "مبكرا", "النص", "هذا", "مرة", "أخرى"},
+            "ru", new String[]{"начало", "конец", "цена", "была", "оплачена", "в", "понедельник", "и", "мы",
+                    "ушли", "рано", "статистика", "этого", "текста", "снова", "ёлка"},
+            "zh", new String[]{"价格", "是", "在", "星期一", "支付", "的", "我们", "很早", "就", "离开", "了",
+                    "这个", "文本", "统计", "再次"});
+
+    private final Mix mix;
+    private final String[] words;
+    private final String[] foreignWords;
+    private final String terminators;
+    private final DateFormat[] dateFormats;
+    private final NumberFormat currencyFormat;
+    private final NumberFormat numberFormat;
+
+    CorpusGenerator(Locale locale, Mix mix) {
+        this.mix = mix;
+        words = WORDS.getOrDefault(locale.getLanguage(), WORDS.get("en"));
+        List<String> foreign = new ArrayList<>();
+        for (Map.Entry<String, String[]> entry : WORDS.entrySet()) {
+            if (entry.getValue() != words) {
+                foreign.addAll(List.of(entry.getValue()));
+            }
+        }
+        foreign.sort(null);
+        foreignWords = foreign.toArray(new String[0]);
+        switch (locale.getLanguage()) {
+            case "zh":
+                terminators = "。？！";
+                break;
+            case "ar":
+                terminators = ".؟!";
+                break;
+            default:
+                terminators = ".?!";
+        }
+        dateFormats = new DateFormat[]{
+                DateFormat.getDateInstance(DateFormat.FULL, locale),
+                DateFormat.getDateInstance(DateFormat.LONG, locale),
+                DateFormat.getDateInstance(DateFormat.MEDIUM, locale),
+                DateFormat.getDateInstance(DateFormat.SHORT, locale)};
+        currencyFormat = NumberFormat.getCurrencyInstance(locale);
+        numberFormat = NumberFormat.getNumberInstance(locale);
+    }
+
+    /**
+     * Writes lines until at least {@code size} chars are written, returns the number of written chars.
+     */
+    long write(Writer writer, long size, Random random) throws IOException {
+        long written = 0;
+        while (written < size) {
+            String line = line(random);
+            writer.write(line);
+            writer.write('\n');
+            written += line.length() + 1;
+        }
+        return written;
+    }
+
+    /**
+     * Writes about {@code size} chars of text of the seed to the file in UTF-8.
+     */
+    void write(Path file, long size, long seed) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            write(writer, size, new Random(seed));
+        }
+    }
+
+    /**
+     * Parses sizes like {@code 1KB}, {@code 64MB} or {@code 1GB}.
+     */
+    static long parseSize(String size) {
+        String s = size.trim().toUpperCase(Locale.ROOT);
+        long unit = 1;
+        if (s.endsWith("KB")) {
+            unit = 1L << 10;
+        } else if (s.endsWith("MB")) {
+            unit = 1L << 20;
+        } else if (s.endsWith("GB")) {
+            unit = 1L << 30;
+        }
+        if (unit != 1) {
+            s = s.substring(0, s.length() - 2);
+        }
+        return Long.parseLong(s) * unit;
+    }
+
+    String line(Random random) {
+        StringBuilder line = new StringBuilder();
+        int sentences = 1 + random.nextInt(3);
+        for (int i = 0; i < sentences; i++) {
+            if (i > 0) {
+                line.append(' ');
+            }
+            int tokens = 4 + random.nextInt(10);
+            for (int j = 0; j < tokens; j++) {
+                if (j > 0) {
+                    line.append(' ');
+                }
+                line.append(token(random));
+            }
+            line.append(terminators.charAt(random.nextInt(terminators.length())));
+        }
+        return line.toString();
+    }
+
+    private String token(Random random) {
+        int kind = random.nextInt(mix.total());
+        if ((kind -= mix.numbers) < 0) {
+            return numberFormat.format(random.nextInt(100_000) / (random.nextBoolean() ? 1 : 100.0));
+        } else if ((kind -= mix.currencies) < 0) {
+            return currencyFormat.format(random.nextInt(1_000_000) / 100.0);
+        } else if ((kind -= mix.dates) < 0) {
+            Date date = new Date(Math.floorMod(random.nextLong(), 4_000_000_000_000L));
+            return dateFormats[random.nextInt(dateFormats.length)].format(date);
+        } else if ((kind -= mix.foreign) < 0) {
+            return foreignWords[random.nextInt(foreignWords.length)];
+        }
+        return words[random.nextInt(words.length)];
+    }
+
+    /**
+     * Relative frequencies of numbers, currencies, dates, words of other languages and words of the locale.
+     */
+    static class Mix {
+        static final Mix DEFAULT = new Mix(6, 4, 4, 0, 86);
+
+        final int numbers;
+        final int currencies;
+        final int dates;
+        final int foreign;
+        final int words;
+
+        Mix(int numbers, int currencies, int dates, int foreign, int words) {
+            if (numbers < 0 || currencies < 0 || dates < 0 || foreign < 0 || words < 0
+                    || numbers + currencies + dates + foreign + words <= 0) {
+                throw new IllegalArgumentException("Frequencies must be non-negative and not all zero");
+            }
+            this.numbers = numbers;
+            this.currencies = currencies;
+            this.dates = dates;
+            this.foreign = foreign;
+            this.words = words;
+        }
+
+        int total() {
+            return numbers + currencies + dates + foreign + words;
+        }
+
+        /**
+         * Parses frequencies like {@code numbers=10,dates=5,foreign=2}, the missing ones are default.
+         */
+        static Mix parse(String s) {
+            int[] frequencies = {DEFAULT.numbers, DEFAULT.currencies, DEFAULT.dates, DEFAULT.foreign, DEFAULT.words};
+            List<String> names = List.of("numbers", "currencies", "dates", "foreign", "words");
+            for (String part : s.split(",")) {
+                String[] pair = part.trim().split("=", 2);
+                int index = names.indexOf(pair[0].trim());
+                if (pair.length != 2 || index < 0) {
+                    throw new IllegalArgumentException("Wrong frequency: " + part);
+                }
+                frequencies[index] = Integer.parseInt(pair[1].trim());
+            }
+            return new Mix(frequencies[0], frequencies[1], frequencies[2], frequencies[3], frequencies[4]);
+        }
+
+        @Override
+        public String toString() {
+            return "numbers=" + numbers + ",currencies=" + currencies + ",dates=" + dates
+                    + ",foreign=" + foreign + ",words=" + words;
+        }
+    }
+}
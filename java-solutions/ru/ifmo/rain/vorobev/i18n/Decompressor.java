@@ -0,0 +1,271 @@
+package ru.ifmo.rain.vorobev.i18n;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Decompresses a gzip or zip file on its own thread, which reads blocks ahead into a bounded queue, so
+ * decompression of the next blocks runs on another core while the previous ones are decoded and analyzed.
+ * Formats are detected by the magic bytes, entries of zip archives are read one after another as one text,
+ * with a line break in the charset of the text after every entry which doesn't end with one.
+ * Blocks are reused once they are decoded, so the memory taken is bounded by the queue.
+ */
+class Decompressor implements Closeable {
+    private static final int BLOCK_SIZE = 1 << 16;
+    private static final int QUEUE_SIZE = 16;
+    /**
+     * Number of bytes before the data of every block, where the undecoded end of the previous block, i.e. a part
+     * of a char, is moved, so blocks are decoded without copying.
+     */
+    private static final int RESERVE = 16;
+    private static final Block END = new Block(null, 0, null);
+
+    enum Format {
+        GZIP, ZIP
+    }
+
+    private final BlockingQueue<Block> blocks = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private final BlockingQueue<byte[]> free = new ArrayBlockingQueue<>(QUEUE_SIZE + 2);
+    private final Thread thread;
+    private final byte[] lineBreak;
+    private final byte[] carriageReturn;
+    private volatile long position = 0;
+    private volatile boolean closed = false;
+    private byte[] current = null;
+    private boolean finished = false;
+
+    private Decompressor(Path file, Format format, Charset charset) {
+        lineBreak = encode(charset, LineReader.LF);
+        carriageReturn = encode(charset, LineReader.CR);
+        thread = new Thread(() -> decompress(file, format), "Decompressor " + file.getFileName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Starts decompression of the file of the text in the charset if it's compressed, or returns {@code null}
+     * if it's not.
+     */
+    static Decompressor open(Path file, Charset charset) throws IOException {
+        Format format = detect(file);
+        return format == null ? null : new Decompressor(file, format, charset);
+    }
+
+    /**
+     * Returns the format of the file by its magic bytes, or {@code null} if it's not compressed.
+     * Zstandard files are recognized but not supported.
+     */
+    static Format detect(Path file) throws IOException {
+        ByteBuffer magic = ByteBuffer.allocate(4);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (magic.hasRemaining() && channel.read(magic) >= 0) {
+                // read the whole magic
+            }
+        }
+        magic.flip();
+        if (magic.remaining() >= 2 && magic.get(0) == (byte) 0x1F && magic.get(1) == (byte) 0x8B) {
+            return Format.GZIP;
+        }
+        if (magic.remaining() == 4 && magic.getInt(0) == 0x504B0304) {
+            return Format.ZIP;
+        }
+        if (magic.remaining() == 4 && magic.getInt(0) == 0x28B52FFD) {
+            throw new IOException("Zstandard compressed input is not supported: " + file);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the char encoded without a byte order mark, or {@code '\n'} if the charset can't encode it.
+     */
+    private static byte[] encode(Charset charset, char c) {
+        try {
+            int single = charset.newEncoder().encode(CharBuffer.wrap(new char[]{c})).remaining();
+            ByteBuffer twice = charset.newEncoder().encode(CharBuffer.wrap(new char[]{c, c}));
+            byte[] bytes = new byte[twice.remaining() - single];
+            twice.position(single).get(bytes);
+            return bytes.length > 0 ? bytes : new byte[]{'\n'};
+        } catch (CharacterCodingException | UnsupportedOperationException e) {
+            return new byte[]{'\n'};
+        }
+    }
+
+    /**
+     * Returns the undecoded rest of the previous buffer followed by the next block, or the rest itself
+     * if the input is finished. Errors of decompression are thrown here.
+     */
+    ByteBuffer next(ByteBuffer rest) throws IOException {
+        Block block;
+        try {
+            block = blocks.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Decompression is interrupted");
+        }
+        if (block.error != null) {
+            throw block.error;
+        }
+        if (block == END) {
+            finished = true;
+            return rest;
+        }
+        ByteBuffer next;
+        int remaining = rest.remaining();
+        if (remaining <= RESERVE) {
+            rest.get(block.data, RESERVE - remaining, remaining);
+            next = ByteBuffer.wrap(block.data, RESERVE - remaining, remaining + block.length);
+        } else {
+            next = ByteBuffer.allocate(remaining + block.length);
+            next.put(rest).put(block.data, RESERVE, block.length).flip();
+        }
+        if (current != null) {
+            free.offer(current);
+        }
+        current = block.data;
+        return next;
+    }
+
+    /**
+     * Returns {@code true} once the end of the decompressed input is returned by {@link #next},
+     * so the buffer it returned last is the end of the input.
+     */
+    boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Returns the offset in the compressed file up to which it's read, which is ahead of the returned blocks
+     * by at most the queue.
+     */
+    long position() {
+        return position;
+    }
+
+    /**
+     * Reads at most {@code size} first bytes of the decompressed input.
+     */
+    ByteBuffer read(int size) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(size);
+        ByteBuffer block = ByteBuffer.allocate(0);
+        while (bytes.hasRemaining() && !finished) {
+            block = next(block);
+            int length = Math.min(block.remaining(), bytes.remaining());
+            bytes.put(block.slice().limit(length));
+            block.position(block.position() + length);
+        }
+        return bytes.flip();
+    }
+
+    /**
+     * Puts the blocks of the file and then the end or the error, whatever is thrown, so {@link #next}
+     * never waits for a thread which is gone.
+     */
+    private void decompress(Path file, Format format) {
+        Block last = END;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            InputStream input = Channels.newInputStream(channel);
+            ZipInputStream zip = null;
+            if (format == Format.GZIP) {
+                input = new GZIPInputStream(input, BLOCK_SIZE);
+            } else {
+                zip = new ZipInputStream(new BufferedInputStream(input, BLOCK_SIZE));
+                input = zip.getNextEntry() == null ? InputStream.nullInputStream() : zip;
+            }
+            // the last bytes of the entry, which are compared with the line terminators
+            byte[] entryEnd = new byte[lineBreak.length];
+            long entryLength = 0;
+            int separator = 0;
+            while (true) {
+                byte[] data = free.poll();
+                if (data == null) {
+                    data = new byte[RESERVE + BLOCK_SIZE];
+                }
+                int length = 0;
+                while (length < BLOCK_SIZE) {
+                    if (separator > 0) {
+                        int count = Math.min(separator, BLOCK_SIZE - length);
+                        System.arraycopy(lineBreak, lineBreak.length - separator, data, RESERVE + length, count);
+                        separator -= count;
+                        length += count;
+                        continue;
+                    }
+                    int read = input.read(data, RESERVE + length, BLOCK_SIZE - length);
+                    if (read < 0) {
+                        if (zip == null || input != zip || zip.getNextEntry() == null) {
+                            break;
+                        }
+                        if (entryLength > 0 && (entryLength < entryEnd.length
+                                || !Arrays.equals(entryEnd, lineBreak) && !Arrays.equals(entryEnd, carriageReturn))) {
+                            separator = lineBreak.length;
+                        }
+                        entryLength = 0;
+                        continue;
+                    }
+                    int shift = Math.min(read, entryEnd.length);
+                    System.arraycopy(entryEnd, shift, entryEnd, 0, entryEnd.length - shift);
+                    System.arraycopy(data, RESERVE + length + read - shift, entryEnd, entryEnd.length - shift, shift);
+                    entryLength += read;
+                    length += read;
+                }
+                position = channel.position();
+                if (length > 0) {
+                    blocks.put(new Block(data, length, null));
+                }
+                if (length < BLOCK_SIZE) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            last = new Block(null, 0, e);
+        } catch (InterruptedException e) {
+            // closed
+            return;
+        } catch (Throwable e) {
+            last = new Block(null, 0, new IOException("Decompression error: " + file, e));
+        }
+        if (!closed) {
+            try {
+                blocks.put(last);
+            } catch (InterruptedException ignored) {
+                // closed
+            }
+        }
+    }
+
+    /**
+     * Stops decompression, the decompressing thread exits as soon as it's interrupted.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        thread.interrupt();
+    }
+
+    private static class Block {
+        final byte[] data;
+        final int length;
+        final IOException error;
+
+        Block(byte[] data, int length, IOException error) {
+            this.data = data;
+            this.length = length;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,341 @@
+package ru.ifmo.rain.vorobev.i18n;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.BreakIterator;
+import java.text.DateFormat;
+import java.text.Format;
+import java.text.NumberFormat;
+import java.text.ParseException;
+import java.text.ParsePosition;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Randomized differential test and load generator: texts of every locale are generated by {@link CorpusGenerator},
+ * analyzed by two implementations, which must give the same statistics of all blocks, and the throughput
+ * of both implementations is reported.
+ */
+public class DifferentialHarness {
+    private static final TextAnalyzer PARALLEL = new TextAnalyzer();
+    private static final TextAnalyzer SEQUENTIAL = new TextAnalyzer(new ForkJoinPool(1), StandardCharsets.UTF_8);
+
+    /**
+     * Implementations by names: {@code reference} counts objects as the original implementation did,
+     * see {@link #analyzeReference}, {@code parallel} analyzes segments on the common pool, {@code sequential}
+     * on one thread, {@code incremental} analyzes the file with a new checkpoint and {@code snapshot} reads back
+     * the saved statistics of the parallel analysis.
+     */
+    static final Map<String, Implementation> IMPLEMENTATIONS = new LinkedHashMap<>();
+
+    static {
+        IMPLEMENTATIONS.put("reference", DifferentialHarness::analyzeReference);
+        IMPLEMENTATIONS.put("parallel", PARALLEL::analyze);
+        IMPLEMENTATIONS.put("sequential", SEQUENTIAL::analyze);
+        IMPLEMENTATIONS.put("incremental", DifferentialHarness::analyzeIncrementally);
+        IMPLEMENTATIONS.put("snapshot", DifferentialHarness::analyzeBySnapshot);
+    }
+
+    interface Implementation {
+        TextStatistics analyze(Path file, Locale locale) throws IOException;
+    }
+
+    /**
+     * Usage: {@code [-mix <frequencies>] [-seed <seed>] [-repeat <runs>] [-corpus <directory>]
+     * <implementation> <implementation> <size> <locale>...}.
+     * A text of the size is generated for every locale with the {@link CorpusGenerator.Mix} of the frequencies
+     * and the seed, and kept in the corpus directory if it's given. Every text is analyzed the given number of
+     * times by both implementations in turn, and the best time of each is reported in MB/s.
+     * Blocks which differ are printed, and the exit status is 1 if any of them do.
+     */
+    public static void main(String[] args) {
+        if (args == null || Arrays.asList(args).contains(null)) {
+            System.err.println("Wrong number of arguments");
+            return;
+        }
+        CorpusGenerator.Mix mix = CorpusGenerator.Mix.DEFAULT;
+        long seed = 42;
+        int repeat = 1;
+        Path corpus = null;
+        try {
+            while (args.length > 1 && args[0].startsWith("-")) {
+                switch (args[0]) {
+                    case "-mix":
+                        mix = CorpusGenerator.Mix.parse(args[1]);
+                        break;
+                    case "-seed":
+                        seed = Long.parseLong(args[1]);
+                        break;
+                    case "-repeat":
+                        repeat = Integer.parseInt(args[1]);
+                        break;
+                    case "-corpus":
+                        corpus = Paths.get(args[1]);
+                        break;
+                    default:
+                        System.err.println("Wrong option: " + args[0]);
+                        return;
+                }
+                args = Arrays.copyOfRange(args, 2, args.length);
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println("Wrong option value: " + e.getMessage());
+            return;
+        }
+        if (args.length < 4 || repeat < 1) {
+            System.err.println("Wrong number of arguments");
+            return;
+        }
+        Implementation[] implementations = new Implementation[2];
+        for (int i = 0; i < implementations.length; i++) {
+            implementations[i] = IMPLEMENTATIONS.get(args[i]);
+            if (implementations[i] == null) {
+                System.err.println("Wrong implementation: " + args[i] + ", expected one of "
+                        + IMPLEMENTATIONS.keySet());
+                return;
+            }
+        }
+        long size;
+        try {
+            size = CorpusGenerator.parseSize(args[2]);
+        } catch (NumberFormatException e) {
+            System.err.println("Wrong size: " + args[2]);
+            return;
+        }
+
+        long totalBytes = 0;
+        long[] totalNanos = new long[2];
+        int failed = 0;
+        for (String localeName : Arrays.asList(args).subList(3, args.length)) {
+            Locale locale = TextStatistics.getLocale(localeName);
+            if (locale == null) {
+                return;
+            }
+            try {
+                Path file = corpus == null ? Files.createTempFile("corpus", ".txt")
+                        : corpus.resolve(localeName + "-" + args[2] + "-" + seed + "-"
+                        + Integer.toHexString(mix.toString().hashCode()) + ".txt");
+                try {
+                    if (corpus == null || !Files.exists(file)) {
+                        if (corpus != null) {
+                            Files.createDirectories(corpus);
+                        }
+                        new CorpusGenerator(locale, mix).write(file, size, seed);
+                    }
+                    long[] nanos = new long[2];
+                    List<String> mismatches = compare(implementations, file, locale, repeat, nanos);
+                    long bytes = Files.size(file);
+                    totalBytes += bytes;
+                    for (int i = 0; i < nanos.length; i++) {
+                        totalNanos[i] += nanos[i];
+                    }
+                    System.out.println(localeName + ": " + args[0] + " " + throughput(bytes, nanos[0]) + ", "
+                            + args[1] + " " + throughput(bytes, nanos[1]) + ", "
+                            + (mismatches.isEmpty() ? "same" : "DIFFERENT"));
+                    if (!mismatches.isEmpty()) {
+                        failed++;
+                        mismatches.forEach(System.err::println);
+                    }
+                } finally {
+                    if (corpus == null) {
+                        Files.deleteIfExists(file);
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Reading error: " + e.getMessage());
+                return;
+            }
+        }
+        System.out.println("total: " + args[0] + " " + throughput(totalBytes, totalNanos[0]) + ", "
+                + args[1] + " " + throughput(totalBytes, totalNanos[1]));
+        if (failed > 0) {
+            System.err.println("Statistics differ for " + failed + " locales");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Analyzes the file by both implementations {@code repeat} times, alternating which one goes first,
+     * puts the best times of them to {@code nanos} and returns the mismatches of the last results.
+     */
+    static List<String> compare(Implementation[] implementations, Path file, Locale locale, int repeat, long[] nanos)
+            throws IOException {
+        TextStatistics[] results = new TextStatistics[implementations.length];
+        Arrays.fill(nanos, Long.MAX_VALUE);
+        for (int run = 0; run < repeat; run++) {
+            for (int k = 0; k < implementations.length; k++) {
+                int i = (run + k) % implementations.length;
+                long start = System.nanoTime();
+                results[i] = implementations[i].analyze(file, locale);
+                results[i].getBlockStats();
+                nanos[i] = Math.min(nanos[i], System.nanoTime() - start);
+            }
+        }
+        return mismatches(results[0], results[1]);
+    }
+
+    /**
+     * Returns descriptions of the blocks of which the statistics differ, with all their values
+     * including the most frequent objects and the length histograms.
+     */
+    static List<String> mismatches(TextStatistics expected, TextStatistics actual) throws IOException {
+        List<String> mismatches = new ArrayList<>();
+        BlockStats[] expectedBlocks = expected.getBlockStats();
+        BlockStats[] actualBlocks = actual.getBlockStats();
+        for (int i = 0; i < TextStatistics.STATS_COUNT; i++) {
+            String expectedBlock = toJson(expected, i, expectedBlocks[i]);
+            String actualBlock = toJson(actual, i, actualBlocks[i]);
+            if (!expectedBlock.equals(actualBlock)) {
+                mismatches.add(TextStatistics.STATS[i] + " of " + expected.inputFile + ":\n  " + expectedBlock
+                        + "\n  " + actualBlock);
+            }
+        }
+        return mismatches;
+    }
+
+    private static String toJson(TextStatistics statistics, int index, BlockStats block) throws IOException {
+        StringWriter writer = new StringWriter();
+        ReportFormat.JSON.writeBlock(statistics, Locale.ROOT, index, block, writer);
+        return writer.toString();
+    }
+
+    private static String throughput(long bytes, long nanos) {
+        return String.format(Locale.ROOT, "%.1f MB/s", bytes / (double) (1 << 20) / (nanos / 1e9));
+    }
+
+    /**
+     * Counts objects as the original implementation did, which is kept as it was to be the oracle: lines are
+     * read by {@link BufferedReader}, sentences and words are found by {@link BreakIterator} in the whole text,
+     * and numbers, currencies and dates are parsed by the formats of the locale at every position.
+     * Maps of the original are replaced by tables, which keep the same keys and originals, and values are parsed
+     * back from the objects as the original did to compare them. Blocks of providers of {@link Extractor} stay empty.
+     */
+    static TextStatistics analyzeReference(Path file, Locale locale) throws IOException {
+        ArrayList<FrequencyTable> objectsCount = TextAnalyzer.createTables();
+        StringBuilder stringBuilder = new StringBuilder();
+        try (BufferedReader reader = Files.newBufferedReader(file)) {
+            String curString;
+            while ((curString = reader.readLine()) != null) {
+                stringBuilder.append(curString).append(" ");
+                addToMap(objectsCount.get(1), curString, locale);
+            }
+        }
+        String s = stringBuilder.toString();
+        createResultMap(objectsCount.get(0), BreakIterator.getSentenceInstance(locale), s, locale);
+        createResultMap(objectsCount.get(2), BreakIterator.getWordInstance(locale), s, locale);
+        parseComplex(objectsCount.get(3), objectsCount.get(4), objectsCount.get(5), s, locale);
+
+        parseValues(objectsCount.get(3), NumberFormat.getNumberInstance(locale));
+        parseValues(objectsCount.get(4), NumberFormat.getCurrencyInstance(locale));
+        DateFormat[] dateFormats = new DateFormat[4];
+        dateFormats[0] = DateFormat.getDateInstance(DateFormat.FULL, locale);
+        dateFormats[1] = DateFormat.getDateInstance(DateFormat.LONG, locale);
+        dateFormats[2] = DateFormat.getDateInstance(DateFormat.MEDIUM, locale);
+        dateFormats[3] = DateFormat.getDateInstance(DateFormat.SHORT, locale);
+        objectsCount.get(5).forEach(curCount -> {
+            Date curDate;
+            int i = 0;
+            while ((curDate = dateFormats[i].parse(curCount.getObject(), new ParsePosition(0))) == null) {
+                i += 1;
+            }
+            curCount.setValue(curDate);
+        });
+        return new TextStatistics(PARALLEL, locale, file.toString(), objectsCount);
+    }
+
+    private static void createResultMap(FrequencyTable objectsCount, BreakIterator breakIterator, String text,
+                                        Locale locale) {
+        breakIterator.setText(text);
+        int curIndex = breakIterator.first();
+        int prevIndex = 0;
+        while (curIndex != BreakIterator.DONE) {
+            String object = text.substring(prevIndex, curIndex);
+            if (isCorrect(object)) {
+                addToMap(objectsCount, object, locale);
+            }
+            prevIndex = curIndex;
+            curIndex = breakIterator.next();
+        }
+    }
+
+    private static void addToMap(FrequencyTable objectsCount, String object, Locale locale) {
+        objectsCount.add(object.toLowerCase(locale), object);
+    }
+
+    private static void parseComplex(FrequencyTable numberCount, FrequencyTable currenciesCount,
+                                     FrequencyTable datesCount, String s, Locale locale) {
+        Format[] allFormats = new Format[6];
+        allFormats[0] = DateFormat.getDateInstance(DateFormat.FULL, locale);
+        allFormats[1] = DateFormat.getDateInstance(DateFormat.LONG, locale);
+        allFormats[2] = DateFormat.getDateInstance(DateFormat.MEDIUM, locale);
+        allFormats[3] = DateFormat.getDateInstance(DateFormat.SHORT, locale);
+        allFormats[4] = NumberFormat.getCurrencyInstance(locale);
+        allFormats[5] = NumberFormat.getNumberInstance(locale);
+        for (ParsePosition pos = new ParsePosition(0); pos.getIndex() < s.length(); ) {
+            int index = 0;
+            Date curDate = null;
+            Number curNum = null;
+            int lastPos = pos.getIndex();
+            while (index < 6 && (index < 4 && ((curDate = ((DateFormat) allFormats[index]).parse(s, pos)) == null)
+                    || (index >= 4 && (curNum = ((NumberFormat) allFormats[index]).parse(s, pos)) == null))) {
+                index += 1;
+            }
+            if (curDate != null) {
+                addToMap(datesCount, ((DateFormat) allFormats[index]).format(curDate), locale);
+            } else if (curNum != null) {
+                if (index == 4) {
+                    addToMap(currenciesCount, s.substring(lastPos, pos.getIndex()), locale);
+                } else {
+                    addToMap(numberCount, allFormats[index].format(curNum), locale);
+                }
+            } else {
+                pos.setIndex(pos.getIndex() + 1);
+            }
+        }
+    }
+
+    private static void parseValues(FrequencyTable objectsCount, NumberFormat numberFormat) {
+        objectsCount.forEach(curCount -> {
+            try {
+                curCount.setValue(numberFormat.parse(curCount.getObject()));
+            } catch (ParseException ignored) {
+            }
+        });
+    }
+
+    private static boolean isCorrect(String object) {
+        object = object.trim();
+        return !((object.length() == 1 && !Character.isLetterOrDigit(object.charAt(0))) || object.isEmpty());
+    }
+
+    private static TextStatistics analyzeIncrementally(Path file, Locale locale) throws IOException {
+        Path checkpoint = Files.createTempFile("differential", ".checkpoint");
+        try {
+            Files.delete(checkpoint);
+            return PARALLEL.analyze(file, locale, checkpoint);
+        } finally {
+            Files.deleteIfExists(checkpoint);
+        }
+    }
+
+    private static TextStatistics analyzeBySnapshot(Path file, Locale locale) throws IOException {
+        Path snapshot = Files.createTempFile("differential", ".snapshot");
+        try {
+            Snapshot.write(PARALLEL.analyze(file, locale), snapshot);
+            return Snapshot.read(PARALLEL, snapshot);
+        } finally {
+            Files.deleteIfExists(snapshot);
+        }
+    }
+}
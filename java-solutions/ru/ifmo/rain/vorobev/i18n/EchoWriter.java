@@ -0,0 +1,42 @@
+package ru.ifmo.rain.vorobev.i18n;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+
+/**
+ * Writes everything both to the writer and to the stream. Closing closes only the writer.
+ */
+class EchoWriter extends Writer {
+    private final Writer writer;
+    private final PrintStream echo;
+
+    EchoWriter(Writer writer, PrintStream echo) {
+        this.writer = writer;
+        this.echo = echo;
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        writer.write(cbuf, off, len);
+        echo.print(new String(cbuf, off, len));
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        writer.write(str, off, len);
+        echo.print(str.substring(off, off + len));
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writer.flush();
+        echo.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        echo.flush();
+        writer.close();
+    }
+}
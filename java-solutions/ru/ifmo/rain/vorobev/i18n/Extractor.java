@@ -0,0 +1,62 @@
+package ru.ifmo.rain.vorobev.i18n;
+
+import java.text.ParsePosition;
+import java.util.Locale;
+
+/**
+ * Extractor of a block of objects which are recognized in the text, like numbers, dates or percentages.
+ * Extractors are registered as providers of this service and found by {@link java.util.ServiceLoader},
+ * their blocks follow the standard blocks of {@link TextStatistics#STATS}.
+ * <p>
+ * All extractors share the single traversal of {@link Tokenizer}: recognizers are asked for objects at the positions
+ * where objects may start, in the order of extractors, and the first recognized object is counted in the block of its
+ * extractor. Providers are asked before the standard numbers, currencies and dates, so they can recognize objects
+ * which start with numbers. Objects of a block are counted, merged and saved as the standard ones,
+ * and compared by their values or by the collator of the input locale.
+ */
+public interface Extractor {
+    /**
+     * Returns the name of the block, which is its name in the reports and the suffix of its report strings,
+     * e.g. {@code part.title.<name>}.
+     */
+    String getName();
+
+    /**
+     * Returns the name of the objects in the output locale, which is put into the default report strings
+     * if the report bundle has no strings of the block.
+     */
+    default String getDisplayName(Locale outputLocale) {
+        return getName();
+    }
+
+    /**
+     * Checks if objects are compared by values of {@link Recognizer#getValue}, otherwise they are compared by
+     * the collator of the input locale.
+     */
+    default boolean comparesValues() {
+        return false;
+    }
+
+    /**
+     * Creates a recognizer of objects of the locale, which is used by one thread.
+     */
+    Recognizer newRecognizer(Locale locale);
+
+    interface Recognizer {
+        /**
+         * Recognizes an object which starts at the index of the position. Returns the text of the object
+         * and moves the position after it, or returns {@code null} and leaves the position as it was.
+         * Objects must not be longer than {@value Tokenizer#COMPLEX_MAX_LENGTH} chars.
+         */
+        String recognize(String text, ParsePosition position);
+
+        /**
+         * Returns the value of the recognized object, by which objects are compared: a {@link Number},
+         * a {@link java.util.Date} or {@code null} if there is none. Values are got once for every unique
+         * object from its text.
+         */
+        default Object getValue(String object) {
+            return null;
+        }
+    }
+}
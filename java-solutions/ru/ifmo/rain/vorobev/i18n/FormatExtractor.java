@@ -0,0 +1,82 @@
+package ru.ifmo.rain.vorobev.i18n;
+
+import java.text.DateFormat;
+import java.text.Format;
+import java.text.NumberFormat;
+import java.text.ParsePosition;
+import java.util.Locale;
+import java.util.function.Function;
+
+/**
+ * Extractor of objects which are parsed by formats of the locale, tried in the given order. Objects are either
+ * the parsed values formatted back or the parsed texts as they are, and values are parsed back from the objects
+ * by the first format which parses them. Numbers, currencies and dates are the standard blocks of this kind.
+ */
+class FormatExtractor implements Extractor {
+    static final FormatExtractor NUMBERS = new FormatExtractor("numbers", true,
+            locale -> new Format[]{NumberFormat.getNumberInstance(locale)});
+    static final FormatExtractor CURRENCIES = new FormatExtractor("currencies", false,
+            locale -> new Format[]{NumberFormat.getCurrencyInstance(locale)});
+    static final FormatExtractor DATES = new FormatExtractor("dates", true,
+            locale -> new Format[]{
+                    DateFormat.getDateInstance(DateFormat.FULL, locale),
+                    DateFormat.getDateInstance(DateFormat.LONG, locale),
+                    DateFormat.getDateInstance(DateFormat.MEDIUM, locale),
+                    DateFormat.getDateInstance(DateFormat.SHORT, locale)});
+
+    private final String name;
+    private final boolean formatsValues;
+    private final Function<Locale, Format[]> formats;
+
+    FormatExtractor(String name, boolean formatsValues, Function<Locale, Format[]> formats) {
+        this.name = name;
+        this.formatsValues = formatsValues;
+        this.formats = formats;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public boolean comparesValues() {
+        return true;
+    }
+
+    @Override
+    public FormatRecognizer newRecognizer(Locale locale) {
+        return new FormatRecognizer(formats.apply(locale));
+    }
+
+    class FormatRecognizer implements Recognizer {
+        final Format[] formats;
+
+        private FormatRecognizer(Format[] formats) {
+            this.formats = formats;
+        }
+
+        @Override
+        public String recognize(String text, ParsePosition position) {
+            int start = position.getIndex();
+            for (Format format : formats) {
+                Object value = format.parseObject(text, position);
+                if (value != null) {
+                    return formatsValues ? format.format(value) : text.substring(start, position.getIndex());
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public Object getValue(String object) {
+            for (Format format : formats) {
+                Object value = format.parseObject(object, new ParsePosition(0));
+                if (value != null) {
+                    return value;
+                }
+            }
+            return null;
+        }
+    }
+}
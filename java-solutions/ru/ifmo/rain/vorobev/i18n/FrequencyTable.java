@@ -0,0 +1,289 @@
+package ru.ifmo.rain.vorobev.i18n;
+
+import java.text.Collator;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Consumer;
+
+/**
+ * Counts objects by their keys in an open addressing hash table with linear probing.
+ * Adding an object takes one lookup, new {@link ObjectCount}s are created only for new keys.
+ * Objects are sorted by keys only when they are requested, the order is kept until the next change.
+ * <p>
+ * If the table is ordered by a {@link Collator}, every new key is compared with the least and the greatest
+ * keys when it's inserted, so they are known without sorting. These are two comparisons per unique key, which
+ * stop at the first difference, so they are cheaper than a {@link java.text.CollationKey} of the whole key.
+ * Keys which are equal for the collator are ordered by their natural order, so the extremes don't depend
+ * on the order of insertions.
+ * <p>
+ * If the table is stored in a {@link TextArena}, texts of new objects are copied to the arena instead of
+ * being kept as strings, and objects are looked up by their texts in place.
+ */
+class FrequencyTable {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private ObjectCount[] table;
+    private int size = 0;
+    private List<ObjectCount> sorted = null;
+    private Collator collator = null;
+    private ObjectCount minCount = null;
+    private ObjectCount maxCount = null;
+    private String minKey = null;
+    private String maxKey = null;
+    private TextArena arena = null;
+
+    FrequencyTable() {
+        table = new ObjectCount[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Counts one more occurrence of the object with the key. The first added object is kept trimmed
+     * as the original of its key. Returns the count of the key.
+     */
+    ObjectCount add(String key, String object) {
+        int slot = findSlot(table, key, key.hashCode());
+        ObjectCount curCount = table[slot];
+        if (curCount == null) {
+            if (arena == null) {
+                curCount = new ObjectCount();
+                curCount.key = key;
+                curCount.object = object.trim();
+            } else {
+                curCount = arena.store(object, key, key.hashCode());
+            }
+            insert(slot, curCount);
+        }
+        curCount.count++;
+        sorted = null;
+        return curCount;
+    }
+
+    /**
+     * Counts one more occurrence of the object with its lowercase key, as
+     * {@code add(object.toString().toLowerCase(locale), object.toString())}, but hashes and compares
+     * the key in place, so strings are created only for new keys. Objects with chars which are
+     * lowercased depending on their context or the locale are added with strings.
+     */
+    ObjectCount add(CharSequence object, Locale locale) {
+        String language = locale.getLanguage();
+        if (language.equals("tr") || language.equals("az") || language.equals("lt")) {
+            return add(object.toString().toLowerCase(locale), object.toString());
+        }
+        int hash = 0;
+        for (int i = 0; i < object.length(); i++) {
+            char c = object.charAt(i);
+            if (c >= 0x80 && (c == '\u03A3' || c == '\u0130' || Character.isSurrogate(c))) {
+                return add(object.toString().toLowerCase(locale), object.toString());
+            }
+            hash = 31 * hash + ObjectCount.toLowerCase(c);
+        }
+        int mask = table.length - 1;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (table[slot] != null && (table[slot].keyHash() != hash || !table[slot].hasLowerCaseKey(object))) {
+            slot = (slot + 1) & mask;
+        }
+        ObjectCount curCount = table[slot];
+        if (curCount == null) {
+            if (arena == null) {
+                String original = object.toString();
+                curCount = new ObjectCount();
+                curCount.key = original.toLowerCase(locale);
+                curCount.object = original.trim();
+            } else {
+                curCount = arena.store(object, null, hash);
+            }
+            insert(slot, curCount);
+        }
+        curCount.count++;
+        sorted = null;
+        return curCount;
+    }
+
+    ObjectCount get(String key) {
+        return table[findSlot(table, key, key.hashCode())];
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Adds counts of the other table. Objects of this table are kept for the keys found in both.
+     * Objects of the other table are copied with their own counters, so the other table is never changed by
+     * later additions to this one, and their texts are copied to the arena, if they are to be stored.
+     */
+    void merge(FrequencyTable other) {
+        for (ObjectCount otherCount : other.table) {
+            if (otherCount == null) {
+                continue;
+            }
+            int slot = findSlot(table, otherCount);
+            if (table[slot] == null) {
+                boolean keep = arena == null || otherCount instanceof TextArena.StoredCount;
+                insert(slot, keep ? otherCount.copy() : arena.store(otherCount));
+            } else {
+                table[slot].count += otherCount.count;
+            }
+        }
+        sorted = null;
+    }
+
+    /**
+     * Passes all counts to the action in no particular order.
+     */
+    void forEach(Consumer<ObjectCount> action) {
+        for (ObjectCount curCount : table) {
+            if (curCount != null) {
+                action.accept(curCount);
+            }
+        }
+    }
+
+    void clear() {
+        table = new ObjectCount[INITIAL_CAPACITY];
+        size = 0;
+        sorted = null;
+        minCount = null;
+        maxCount = null;
+        minKey = null;
+        maxKey = null;
+        if (arena != null) {
+            arena.clear();
+        }
+    }
+
+    /**
+     * Stores texts of objects in the arena from now on, texts of the objects counted before are moved to it.
+     * The arena is used by the thread which adds objects only.
+     */
+    void storeIn(TextArena arena) {
+        this.arena = arena;
+        for (int i = 0; i < table.length; i++) {
+            if (table[i] != null && !(table[i] instanceof TextArena.StoredCount)) {
+                table[i] = arena.store(table[i]);
+            }
+        }
+        sorted = null;
+        if (collator != null) {
+            orderBy(collator);
+        }
+    }
+
+    boolean isStored() {
+        return arena != null;
+    }
+
+    /**
+     * Orders keys by the collator from now on, the keys counted before are ordered at once.
+     * The collator is used by the thread which adds objects only.
+     */
+    void orderBy(Collator collator) {
+        this.collator = collator;
+        minCount = null;
+        maxCount = null;
+        minKey = null;
+        maxKey = null;
+        forEach(this::order);
+    }
+
+    boolean isOrdered() {
+        return collator != null;
+    }
+
+    /**
+     * Returns the count of the least key by the collator, or {@code null} if the table is empty or not ordered.
+     */
+    ObjectCount getMin() {
+        return minCount;
+    }
+
+    /**
+     * Returns the count of the greatest key by the collator, or {@code null} if the table is empty or not ordered.
+     */
+    ObjectCount getMax() {
+        return maxCount;
+    }
+
+    /**
+     * Compares keys by the collator of the table, and keys which are equal for it by their natural order.
+     */
+    int compare(String key, String otherKey) {
+        int result = collator.compare(key, otherKey);
+        return result != 0 ? result : key.compareTo(otherKey);
+    }
+
+    /**
+     * Keys of the extremes are kept as strings, as stored objects create them on every request.
+     */
+    private void order(ObjectCount curCount) {
+        String key = curCount.getKey();
+        if (minCount == null) {
+            minCount = curCount;
+            maxCount = curCount;
+            minKey = key;
+            maxKey = key;
+        } else if (compare(key, minKey) < 0) {
+            minCount = curCount;
+            minKey = key;
+        } else if (compare(key, maxKey) > 0) {
+            maxCount = curCount;
+            maxKey = key;
+        }
+    }
+
+    /**
+     * Returns counts in the natural order of keys.
+     */
+    List<ObjectCount> sorted() {
+        if (sorted == null) {
+            ObjectCount[] counts = new ObjectCount[size];
+            int i = 0;
+            for (ObjectCount curCount : table) {
+                if (curCount != null) {
+                    counts[i++] = curCount;
+                }
+            }
+            Arrays.sort(counts, ObjectCount::compareKeyTo);
+            sorted = Collections.unmodifiableList(Arrays.asList(counts));
+        }
+        return sorted;
+    }
+
+    private void insert(int slot, ObjectCount curCount) {
+        table[slot] = curCount;
+        size++;
+        if (collator != null) {
+            order(curCount);
+        }
+        if (size * 4 > table.length * 3) {
+            ObjectCount[] newTable = new ObjectCount[table.length * 2];
+            for (ObjectCount oldCount : table) {
+                if (oldCount != null) {
+                    newTable[findSlot(newTable, oldCount)] = oldCount;
+                }
+            }
+            table = newTable;
+        }
+    }
+
+    private static int findSlot(ObjectCount[] table, String key, int hash) {
+        int mask = table.length - 1;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (table[slot] != null && !table[slot].hasKey(key)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int findSlot(ObjectCount[] table, ObjectCount curCount) {
+        int hash = curCount.keyHash();
+        int mask = table.length - 1;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (table[slot] != null && (table[slot].keyHash() != hash || table[slot].compareKeyTo(curCount) != 0)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+}
@@ -0,0 +1,274 @@
+package ru.ifmo.rain.vorobev.i18n;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads lines of a file which is memory-mapped by windows and decoded by big blocks with one decoder,
+ * of a compressed file which is decompressed on another thread, see {@link Decompressor}, or lines of a string.
+ * Lines are split as by {@link java.io.BufferedReader#readLine()} and returned as a view of the decoded chars,
+ * which is valid until the next line is read.
+ * <p>
+ * Lines longer than the maximal length are returned by parts, which end after a whitespace if there is one
+ * in the second half of the part, so the buffer is bounded however long the lines of the input are.
+ * Parts but the last one are {@link Line#isContinued() continued}.
+ */
+class LineReader implements Closeable {
+    private static final long WINDOW_SIZE = 1 << 26;
+    private static final int BLOCK_SIZE = 1 << 16;
+    static final int MAX_LINE_LENGTH = 1 << 20;
+    /**
+     * Line terminators, {@code "\r\n"} is one terminator.
+     */
+    static final char LF = '\n';
+    static final char CR = '\r';
+
+    private final FileChannel channel;
+    private final Decompressor decompressor;
+    private final CharsetDecoder decoder;
+    private final int maxLineLength;
+    private long fileEnd;
+    private ByteBuffer window;
+    private long windowEnd;
+    private boolean decoded;
+
+    private char[] buffer;
+    private int position = 0;
+    private int limit;
+    private boolean skipLF = false;
+    private final Line line = new Line();
+
+    /**
+     * Reads the whole file, which is decompressed if it's a gzip or zip file.
+     */
+    LineReader(Path file, Charset charset) throws IOException {
+        this(file, charset, Decompressor.open(file, charset), 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * Reads the part of the file from the {@code start} byte to the {@code end} byte or to the end of the file,
+     * the part must start at a char boundary. The file is read as it is, even if it's compressed.
+     */
+    LineReader(Path file, Charset charset, long start, long end) throws IOException {
+        this(file, charset, null, start, end);
+    }
+
+    private LineReader(Path file, Charset charset, Decompressor decompressor, long start, long end)
+            throws IOException {
+        this.decompressor = decompressor;
+        decoder = charset.newDecoder();
+        maxLineLength = MAX_LINE_LENGTH;
+        buffer = new char[BLOCK_SIZE];
+        limit = 0;
+        windowEnd = 0;
+        decoded = false;
+        if (decompressor != null) {
+            channel = null;
+            window = ByteBuffer.allocate(0);
+            return;
+        }
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            fileEnd = Math.min(end, channel.size());
+            mapNextWindow(Math.min(start, fileEnd));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    LineReader(String text) {
+        this(text, MAX_LINE_LENGTH);
+    }
+
+    LineReader(String text, int maxLineLength) {
+        this.maxLineLength = maxLineLength;
+        channel = null;
+        decompressor = null;
+        decoder = null;
+        buffer = text.toCharArray();
+        limit = buffer.length;
+        decoded = true;
+    }
+
+    /**
+     * Returns the next line without the line terminator or {@code null} at the end of the input.
+     */
+    Line readLine() throws IOException {
+        if (skipLF) {
+            if (position == limit) {
+                fill();
+            }
+            if (position < limit && buffer[position] == LF) {
+                position++;
+            }
+            skipLF = false;
+        }
+        int end = position;
+        while (true) {
+            // a terminator right after the longest line is looked for, so such a line is not split
+            int max = (int) Math.min(limit, (long) position + maxLineLength + 1);
+            while (end < max && buffer[end] != LF && buffer[end] != CR) {
+                end++;
+            }
+            if (end < max) {
+                line.set(buffer, position, end - position, false);
+                skipLF = buffer[end] == CR;
+                position = end + 1;
+                return line;
+            }
+            if (end - position > maxLineLength) {
+                int split = splitPosition(position + maxLineLength);
+                line.set(buffer, position, split - position, true);
+                position = split;
+                return line;
+            }
+            int read = end - position;
+            if (fill() == 0) {
+                if (read == 0) {
+                    return null;
+                }
+                line.set(buffer, position, read, false);
+                position = limit;
+                return line;
+            }
+            end = position + read;
+        }
+    }
+
+    /**
+     * Returns the offset in the file after the last decoded byte, which is at most a block ahead of the read lines,
+     * the offset up to which a compressed file is read, or the number of read chars of a string.
+     */
+    long position() {
+        return decompressor != null ? decompressor.position()
+                : channel == null ? position : windowEnd - window.remaining();
+    }
+
+    /**
+     * Returns the end of the part of the over-long line which ends at {@code end}: after the last whitespace
+     * in the second half of the part, or at the end, but not between the chars of a surrogate pair.
+     */
+    private int splitPosition(int end) {
+        for (int i = end - 1; i > position + maxLineLength / 2; i--) {
+            if (Character.isWhitespace(buffer[i])) {
+                return i + 1;
+            }
+        }
+        return Character.isHighSurrogate(buffer[end - 1]) && end - 1 > position ? end - 1 : end;
+    }
+
+    /**
+     * Decodes more chars after the buffered ones, keeping the unread part of the buffer.
+     * Returns the number of decoded chars, which is zero only at the end of the input.
+     */
+    private int fill() throws IOException {
+        if (decoded) {
+            return 0;
+        }
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+        }
+        if (buffer.length - limit < BLOCK_SIZE / 2) {
+            char[] newBuffer = new char[Math.max(buffer.length * 2, limit + BLOCK_SIZE)];
+            System.arraycopy(buffer, 0, newBuffer, 0, limit);
+            buffer = newBuffer;
+        }
+        CharBuffer out = CharBuffer.wrap(buffer, limit, buffer.length - limit);
+        int start = limit;
+        while (out.position() == start && !decoded) {
+            boolean last = decompressor == null ? windowEnd == fileEnd : decompressor.isFinished();
+            CoderResult result = decoder.decode(window, out, last);
+            if (result.isError()) {
+                result.throwException();
+            }
+            if (result.isUnderflow()) {
+                if (last) {
+                    decoder.flush(out);
+                    decoded = true;
+                } else if (decompressor != null) {
+                    window = decompressor.next(window);
+                } else {
+                    mapNextWindow(windowEnd - window.remaining());
+                }
+            }
+        }
+        limit = out.position();
+        return limit - start;
+    }
+
+    private void mapNextWindow(long start) throws IOException {
+        long size = Math.min(WINDOW_SIZE, fileEnd - start);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+        windowEnd = start + size;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+        if (decompressor != null) {
+            decompressor.close();
+        }
+    }
+
+    /**
+     * A line as a view of the reader's buffer.
+     */
+    static class Line implements CharSequence {
+        private char[] chars;
+        private int start;
+        private int length;
+        private boolean continued;
+
+        private void set(char[] chars, int start, int length, boolean continued) {
+            this.chars = chars;
+            this.start = start;
+            this.length = length;
+            this.continued = continued;
+        }
+
+        /**
+         * Checks if the line is a part of an over-long line, which is continued by the next line without
+         * a line terminator between them.
+         */
+        boolean isContinued() {
+            return continued;
+        }
+
+        void appendTo(StringBuilder builder) {
+            builder.append(chars, start, length);
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return chars[start + index];
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            return new String(chars, start + from, to - from);
+        }
+
+        @Override
+        public String toString() {
+            return new String(chars, start, length);
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package ru.ifmo.rain.vorobev.i18n;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Detects the locale of a text by its letters. Letters are counted by Unicode scripts, and the languages
+ * of the model which are written in the scripts of most letters are candidates, so a script of one language,
+ * e.g. Greek or Hangul, decides the language at once. Candidates of the same script, e.g. English and Spanish,
+ * are told apart by the character trigrams of the words: every trigram of the text adds to the score of
+ * every candidate which has it in the profile of its most frequent trigrams, the more the more frequent it is
+ * there. The model is loaded from {@value MODEL_NAME} once and shared by all threads.
+ * <p>
+ * Texts are detected by their first {@value SAMPLE_SIZE} chars, which takes much less time than the analysis
+ * of the text, as only letters are looked at and trigrams are looked up in one table.
+ */
+class LocaleDetector {
+    /**
+     * Name of the input locale which is detected from the text.
+     */
+    static final String AUTO = "auto";
+    /**
+     * Locale of texts without letters.
+     */
+    static final Locale DEFAULT_LOCALE = Locale.US;
+    /**
+     * Number of letters below which texts are not detected.
+     */
+    static final int MIN_LETTERS = 16;
+    /**
+     * Number of the first bytes of files or chars of texts by which their locales are detected.
+     */
+    static final int SAMPLE_SIZE = 16 << 10;
+    /**
+     * Weight of a trigram of the profile rank is {@code ln(2 (size + RANK_SHIFT) / (rank + RANK_SHIFT))},
+     * as frequencies of trigrams fall with their ranks.
+     */
+    private static final int RANK_SHIFT = 10;
+    /**
+     * Share of the best score with which the preferred language is still detected.
+     */
+    private static final double PREFERRED_SHARE = 0.6;
+    private static final char BOUNDARY = '_';
+    private static final String MODEL_NAME = "languages.txt";
+    private static final Character.UnicodeScript[] SCRIPTS = Character.UnicodeScript.values();
+    /**
+     * Scripts of letters (or {@code -1} for other chars) and lowercase word chars (or {@code 0} for other chars)
+     * of the alphabets before {@code U+0800}, e.g. Latin, Cyrillic and Arabic, which are looked up much faster
+     * than by {@link Character}. All languages with trigram profiles are written in them.
+     */
+    private static final int BASIC_CHARS = 0x800;
+    private static final short[] BASIC_SCRIPTS = new short[BASIC_CHARS];
+    private static final char[] BASIC_WORD_CHARS = new char[BASIC_CHARS];
+
+    static {
+        for (int c = 0; c < BASIC_CHARS; c++) {
+            BASIC_SCRIPTS[c] = (short) (Character.isLetter(c) ? Character.UnicodeScript.of(c).ordinal() : -1);
+            BASIC_WORD_CHARS[c] = isWordChar(c) ? (char) Character.toLowerCase(c) : 0;
+        }
+    }
+
+    private static final LocaleDetector MODEL = load();
+
+    private final Locale[] locales;
+    private final int[][] scripts;
+    private final boolean[] profiled;
+    /**
+     * Open addressing table of trigrams of all profiles and their indices, with the weights of a trigram
+     * for every language at {@code index * locales.length}.
+     */
+    private final long[] trigrams;
+    private final int[] indices;
+    private final float[] weights;
+
+    private LocaleDetector(Locale[] locales, int[][] scripts, List<String[]> profiles) {
+        this.locales = locales;
+        this.scripts = scripts;
+        profiled = new boolean[locales.length];
+        int size = 0;
+        for (String[] profile : profiles) {
+            size += profile.length;
+        }
+        trigrams = new long[Integer.highestOneBit(Math.max(size, 1)) * 4];
+        indices = new int[trigrams.length];
+        weights = new float[size * locales.length];
+        int count = 0;
+        for (int i = 0; i < locales.length; i++) {
+            String[] profile = profiles.get(i);
+            profiled[i] = profile.length > 0;
+            for (int rank = 0; rank < profile.length; rank++) {
+                long trigram = 0;
+                for (int j = 0, c; j < profile[rank].length(); j += Character.charCount(c)) {
+                    c = profile[rank].codePointAt(j);
+                    trigram = shift(trigram, c);
+                }
+                int slot = findSlot(trigram);
+                if (trigrams[slot] == 0) {
+                    trigrams[slot] = trigram;
+                    indices[slot] = count++;
+                }
+                weights[indices[slot] * locales.length + i] =
+                        (float) Math.log(2.0 * (profile.length + RANK_SHIFT) / (rank + RANK_SHIFT));
+            }
+        }
+    }
+
+    /**
+     * Returns the locale of the beginning of the text or {@link #DEFAULT_LOCALE} if it has too few letters
+     * of the languages of the model.
+     */
+    static Locale detect(CharSequence text) {
+        Locale locale = detect(text, 0, Math.min(text.length(), SAMPLE_SIZE), null);
+        return locale == null ? DEFAULT_LOCALE : locale;
+    }
+
+    /**
+     * Returns the locale of the part of the text or {@code null} if it has less than {@value MIN_LETTERS} letters
+     * or none of the languages of the model. The preferred locale, if it's given, is returned if the language
+     * of the text may be its language, i.e. the text is written in its scripts and, if there are other languages
+     * of them, its language scores not much less than the best one, so ambiguous texts, e.g. of numbers and dates,
+     * keep the preferred locale with its country.
+     */
+    static Locale detect(CharSequence text, int start, int end, Locale preferred) {
+        return MODEL.detectLocale(text, start, end, preferred);
+    }
+
+    private Locale detectLocale(CharSequence text, int start, int end, Locale preferred) {
+        int[] scriptCounts = new int[SCRIPTS.length];
+        int letters = 0;
+        for (int i = start, c; i < end; i += Character.charCount(c)) {
+            c = Character.codePointAt(text, i);
+            int script = c < BASIC_CHARS ? BASIC_SCRIPTS[c]
+                    : Character.isLetter(c) ? Character.UnicodeScript.of(c).ordinal() : -1;
+            if (script >= 0) {
+                scriptCounts[script]++;
+                letters++;
+            }
+        }
+        if (letters < MIN_LETTERS) {
+            return null;
+        }
+
+        int[] candidates = new int[locales.length];
+        int candidatesCount = 0;
+        int maxCovered = 0;
+        for (int i = 0; i < locales.length; i++) {
+            int covered = 0;
+            for (int script : scripts[i]) {
+                covered += scriptCounts[script];
+            }
+            if (covered > maxCovered) {
+                maxCovered = covered;
+                candidatesCount = 0;
+            }
+            if (covered == maxCovered && covered > 0) {
+                candidates[candidatesCount++] = i;
+            }
+        }
+        if (candidatesCount == 0) {
+            return null;
+        }
+        int preferredIndex = -1;
+        for (int j = 0; j < candidatesCount; j++) {
+            if (preferred != null && locales[candidates[j]].getLanguage().equals(preferred.getLanguage())) {
+                preferredIndex = candidates[j];
+            }
+        }
+        if (candidatesCount == 1 || !profiled[candidates[0]]) {
+            return preferredIndex >= 0 ? preferred : locales[candidates[0]];
+        }
+
+        // hits of trigrams are counted first and weighted once per distinct trigram
+        int[] hits = new int[weights.length / locales.length];
+        int[] hitIndices = new int[hits.length];
+        int hitCount = 0;
+        long trigram = shift(0, BOUNDARY);
+        int length = 1;
+        for (int i = start, c; i <= end; i += Character.charCount(c)) {
+            c = i == end ? BOUNDARY : Character.codePointAt(text, i);
+            int lower = c < BASIC_CHARS ? BASIC_WORD_CHARS[c] : isWordChar(c) ? Character.toLowerCase(c) : 0;
+            if (lower == 0 && length == 1) {
+                continue;
+            }
+            c = lower == 0 ? BOUNDARY : lower;
+            trigram = shift(trigram, c);
+            length = c == BOUNDARY ? 1 : length + 1;
+            if (length >= 3 || c == BOUNDARY) {
+                int slot = findSlot(trigram);
+                if (trigrams[slot] != 0 && hits[indices[slot]]++ == 0) {
+                    hitIndices[hitCount++] = indices[slot];
+                }
+            }
+        }
+        double[] scores = new double[locales.length];
+        for (int i = 0; i < hitCount; i++) {
+            int index = hitIndices[i];
+            for (int j = 0; j < candidatesCount; j++) {
+                scores[candidates[j]] += (double) hits[index] * weights[index * locales.length + candidates[j]];
+            }
+        }
+        int best = candidates[0];
+        for (int j = 1; j < candidatesCount; j++) {
+            if (scores[candidates[j]] > scores[best]) {
+                best = candidates[j];
+            }
+        }
+        return preferredIndex >= 0 && scores[preferredIndex] >= PREFERRED_SHARE * scores[best]
+                ? preferred : locales[best];
+    }
+
+    private int findSlot(long trigram) {
+        int mask = trigrams.length - 1;
+        int slot = (int) ((trigram * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+        while (trigrams[slot] != 0 && trigrams[slot] != trigram) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static long shift(long trigram, int c) {
+        return ((trigram << 21) | c) & ((1L << 63) - 1);
+    }
+
+    private static boolean isWordChar(int c) {
+        if (Character.isLetter(c)) {
+            return true;
+        }
+        int type = Character.getType(c);
+        return type == Character.NON_SPACING_MARK || type == Character.COMBINING_SPACING_MARK;
+    }
+
+    private static LocaleDetector load() {
+        InputStream input = LocaleDetector.class.getResourceAsStream(MODEL_NAME);
+        if (input == null) {
+            throw new IllegalStateException("Language model " + MODEL_NAME + " is not found");
+        }
+        List<Locale> locales = new ArrayList<>();
+        List<int[]> scripts = new ArrayList<>();
+        List<String[]> profiles = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] parts = line.trim().split("\\s+");
+                locales.add(Locale.forLanguageTag(parts[0]));
+                String[] names = parts[1].split(",");
+                int[] languageScripts = new int[names.length];
+                for (int i = 0; i < names.length; i++) {
+                    languageScripts[i] = Character.UnicodeScript.valueOf(names[i]).ordinal();
+                }
+                scripts.add(languageScripts);
+                String[] profile = new String[parts.length - 2];
+                System.arraycopy(parts, 2, profile, 0, profile.length);
+                profiles.add(profile);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't read language model " + MODEL_NAME, e);
+        }
+        return new LocaleDetector(locales.toArray(new Locale[0]), scripts.toArray(new int[0][]), profiles);
+    }
+}
@@ -1,8 +1,46 @@
 package ru.ifmo.rain.vorobev.i18n;
 
+import jdk.jfr.FlightRecorder;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+
 public class Main {
+    /**
+     * Usage: {@code [options] <input locale> <output locale> <input file> <output file>}
+     * or {@code [options] -batch <input locale> <output locale> <input directory or glob> <output directory>}.
+     * Options are {@code -charset <name>} for the input charset, UTF-8 by default,
+     * {@code -incremental <checkpoint file>} to analyze only the part of the input file appended after the
+     * previous run, see {@link TextAnalyzer#analyze(Path, Locale, Path)},
+     * {@code -snapshot <snapshot file>} to save the statistics as a {@link Snapshot},
+     * {@code -approximate <precision> <counters>} to analyze the input file in bounded memory, see
+     * {@link TextAnalyzer#analyzeApproximately}, {@code -format <format>,...} to write the reports of the
+     * {@link ReportFormat} names at once, {@code -metrics <json file>} to write the {@link Metrics}
+     * of all stages and {@code -performance} to append them to the report (to the corpus report in batch mode).
+     * Stages are measured if any of these options is given or a JFR recording is running.
+     * <p>
+     * The input locale {@code auto} is detected from the beginning of the input file (of every file in batch mode),
+     * see {@link LocaleDetector}. With {@code -paragraphs}, paragraphs in other languages than the input locale
+     * are tokenized in their own locales, see {@link TextAnalyzer#paragraphLocales}.
+     * <p>
+     * Gzip and zip input files are decompressed as they are read, see {@link Decompressor}.
+     * <p>
+     * Snapshots are rendered with {@code -render <snapshot file> <output locale> <output file>}
+     * and merged with {@code -merge <output snapshot file> <snapshot file>...}.
+     * <p>
+     * {@code -serve <port> [<max concurrent> <max queued> <max body bytes>] [<locale>...]} runs the
+     * {@link StatisticsServer} until the process is stopped, the given locales are warmed up at the start.
+     */
     public static void main(String[] args) {
-        if (args == null || args.length != 4) {
+        if (args == null) {
             System.err.println("Wrong number of arguments");
             return;
         }
@@ -12,9 +50,219 @@ public class Main {
                 return;
             }
         }
+        if (args.length > 0 && ("-render".equals(args[0]) || "-merge".equals(args[0]))) {
+            runSnapshots(args);
+            return;
+        }
+        if (args.length > 0 && "-serve".equals(args[0])) {
+            runServer(args);
+            return;
+        }
+        Charset charset = StandardCharsets.UTF_8;
+        String checkpointFile = null;
+        String snapshotFile = null;
+        int[] approximation = null;
+        String metricsFile = null;
+        boolean performance = false;
+        boolean paragraphs = false;
+        List<ReportFormat> formats = List.of(ReportFormat.HTML);
+        while (args.length > 1 && ("-charset".equals(args[0]) || "-incremental".equals(args[0])
+                || "-snapshot".equals(args[0]) || "-metrics".equals(args[0]) || "-performance".equals(args[0])
+                || "-format".equals(args[0]) || "-paragraphs".equals(args[0])
+                || "-approximate".equals(args[0]) && args.length > 2)) {
+            if ("-performance".equals(args[0]) || "-paragraphs".equals(args[0])) {
+                performance |= "-performance".equals(args[0]);
+                paragraphs |= "-paragraphs".equals(args[0]);
+                args = Arrays.copyOfRange(args, 1, args.length);
+                continue;
+            }
+            if ("-approximate".equals(args[0])) {
+                try {
+                    approximation = new int[]{Integer.parseInt(args[1]), Integer.parseInt(args[2])};
+                } catch (NumberFormatException e) {
+                    System.err.println("Wrong approximation: " + e.getMessage());
+                    return;
+                }
+                args = Arrays.copyOfRange(args, 3, args.length);
+                continue;
+            }
+            if ("-charset".equals(args[0])) {
+                try {
+                    charset = Charset.forName(args[1]);
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Wrong charset: " + args[1]);
+                    return;
+                }
+            } else if ("-incremental".equals(args[0])) {
+                checkpointFile = args[1];
+            } else if ("-metrics".equals(args[0])) {
+                metricsFile = args[1];
+            } else if ("-format".equals(args[0])) {
+                formats = new ArrayList<>();
+                for (String name : args[1].split(",")) {
+                    ReportFormat format = ReportFormat.forName(name);
+                    if (format == null) {
+                        System.err.println("Wrong format: " + name);
+                        return;
+                    }
+                    formats.add(format);
+                }
+            } else {
+                snapshotFile = args[1];
+            }
+            args = Arrays.copyOfRange(args, 2, args.length);
+        }
+        if (args.length != 4 && !(args.length == 5 && "-batch".equals(args[0]) && checkpointFile == null)
+                || approximation != null && (args.length != 4 || checkpointFile != null)) {
+            System.err.println("Wrong number of arguments");
+            return;
+        }
+        Metrics metrics = metricsFile != null || performance || isRecording() ? new Metrics() : null;
+        TextAnalyzer analyzer = new TextAnalyzer(ForkJoinPool.commonPool(), charset, metrics);
+        analyzer.paragraphLocales = paragraphs;
+
+        if (args.length == 5) {
+            boolean detect = LocaleDetector.AUTO.equals(args[1]);
+            Locale inputLocale = detect ? null : TextStatistics.getLocale(args[1]);
+            if (inputLocale == null && !detect) {
+                return;
+            }
+            BatchStatistics batch = new BatchStatistics(analyzer, inputLocale, args[2],
+                    Runtime.getRuntime().availableProcessors());
+            batch.performanceSection = performance;
+            batch.formats = formats;
+            try {
+                writeSnapshot(batch.run(args[3], Paths.get(args[4])), snapshotFile);
+                writeMetrics(metrics, metricsFile);
+            } catch (IOException e) {
+                System.err.println("Reading error: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return;
+        }
 
-        TextStatistics ts = new TextStatistics(args[0],args[2]);
-        ts.createStatistics(args[1],args[3]);
+        if (checkpointFile != null || snapshotFile != null || approximation != null || metrics != null
+                || paragraphs || LocaleDetector.AUTO.equals(args[0])) {
+            try {
+                Locale inputLocale = LocaleDetector.AUTO.equals(args[0])
+                        ? analyzer.detectLocale(Paths.get(args[2])) : TextStatistics.getLocale(args[0]);
+                if (inputLocale == null) {
+                    return;
+                }
+                TextStatistics ts;
+                if (approximation != null) {
+                    ts = analyzer.analyzeApproximately(Paths.get(args[2]), inputLocale, approximation[0], approximation[1]);
+                } else if (checkpointFile != null) {
+                    ts = analyzer.analyze(Paths.get(args[2]), inputLocale, Paths.get(checkpointFile));
+                } else {
+                    ts = analyzer.analyze(Paths.get(args[2]), inputLocale);
+                }
+                ts.performanceSection = performance;
+                ts.createStatistics(args[1], args[3], true, formats);
+                writeSnapshot(ts, snapshotFile);
+                writeMetrics(metrics, metricsFile);
+            } catch (IOException e) {
+                System.err.println("Reading error: " + e.getMessage());
+            } catch (IllegalArgumentException e) {
+                System.err.println("Wrong approximation: " + e.getMessage());
+            }
+            return;
+        }
+
+        TextStatistics ts = new TextStatistics(args[0], args[2], ForkJoinPool.commonPool(), charset);
+        ts.createStatistics(args[1], args[3], true, formats);
+    }
+
+    private static void runServer(String[] args) {
+        int processors = Runtime.getRuntime().availableProcessors();
+        int[] limits = {0, processors, 4 * processors, 16 << 20};
+        int limitsCount = args.length >= 5 ? 4 : 1;
+        if (args.length < 2) {
+            System.err.println("Wrong number of arguments");
+            return;
+        }
+        try {
+            for (int i = 0; i < limitsCount; i++) {
+                limits[i] = Integer.parseInt(args[i + 1]);
+            }
+        } catch (NumberFormatException e) {
+            System.err.println("Wrong server limits: " + e.getMessage());
+            return;
+        }
+        List<Locale> locales = new ArrayList<>();
+        for (int i = limitsCount + 1; i < args.length; i++) {
+            Locale locale = TextStatistics.getLocale(args[i]);
+            if (locale == null) {
+                return;
+            }
+            locales.add(locale);
+        }
+        TextAnalyzer analyzer = new TextAnalyzer(ForkJoinPool.commonPool(), StandardCharsets.UTF_8,
+                isRecording() ? new Metrics() : null);
+        try {
+            StatisticsServer server = new StatisticsServer(analyzer, limits[0], limits[1], limits[2], limits[3]);
+            server.warmUp(locales.toArray(new Locale[0]));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> server.stop(1)));
+            server.start();
+            System.out.println("Listening on port " + server.getPort());
+        } catch (IOException e) {
+            System.err.println("Server error: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Wrong server limits: " + e.getMessage());
+        }
+    }
+
+    private static void runSnapshots(String[] args) {
+        TextAnalyzer analyzer = new TextAnalyzer();
+        try {
+            if ("-render".equals(args[0])) {
+                if (args.length != 4) {
+                    System.err.println("Wrong number of arguments");
+                    return;
+                }
+                Snapshot.readSummary(analyzer, Paths.get(args[1])).createStatistics(args[2], args[3]);
+            } else {
+                if (args.length < 3) {
+                    System.err.println("Wrong number of arguments");
+                    return;
+                }
+                List<Path> snapshots = new ArrayList<>();
+                for (int i = 2; i < args.length; i++) {
+                    snapshots.add(Paths.get(args[i]));
+                }
+                Snapshot.write(Snapshot.merge(analyzer, snapshots), Paths.get(args[1]));
+            }
+        } catch (IOException e) {
+            System.err.println("Snapshot error: " + e.getMessage());
+        }
+    }
+
+    private static boolean isRecording() {
+        return FlightRecorder.isAvailable() && FlightRecorder.isInitialized()
+                && !FlightRecorder.getFlightRecorder().getRecordings().isEmpty();
+    }
+
+    private static void writeMetrics(Metrics metrics, String metricsFile) {
+        if (metricsFile == null) {
+            return;
+        }
+        try {
+            metrics.writeJson(Paths.get(metricsFile));
+        } catch (IOException e) {
+            System.err.println("Metrics error: " + e.getMessage());
+        }
+    }
+
+    private static void writeSnapshot(TextStatistics statistics, String snapshotFile) {
+        if (snapshotFile == null) {
+            return;
+        }
+        try {
+            Snapshot.write(statistics, Paths.get(snapshotFile));
+        } catch (IOException e) {
+            System.err.println("Snapshot error: " + e.getMessage());
+        }
     }
 
 }
@@ -0,0 +1,295 @@
+package ru.ifmo.rain.vorobev.i18n;
+
+import jdk.jfr.*;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.MessageFormat;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Wall time, CPU time, allocated bytes and processed tokens of every stage of the analysis, by the input locale
+ * or, for rendering, the output locale.
+ * Every measurement is also committed as a {@link StageEvent} to running JFR recordings.
+ * <p>
+ * Sentences, words and numbers, currencies and dates are found in one loop of {@link Tokenizer}, so they are
+ * timed by a {@link Clock} which switches between the stages. Wall time and allocated bytes are taken at every
+ * switch, while CPU time is taken once per segment and split between the stages in proportion to their wall
+ * time, as reading the thread CPU clock costs more than a token. Measurements add some overhead to the
+ * measured stages, so metrics should be compared with each other rather than with uninstrumented runs.
+ */
+class Metrics {
+    enum Stage {
+        /**
+         * Detection of the input locale by the beginning of the text, and of the locales of paragraphs,
+         * tokens are the texts.
+         */
+        DETECT,
+        /**
+         * Reading, decoding and counting lines, and splitting the text into segments, on the reading thread.
+         */
+        READ,
+        /**
+         * Merging tables of segments, and adding them to sketches in the approximate mode.
+         */
+        MERGE,
+        SENTENCES,
+        WORDS,
+        /**
+         * {@link Tokenizer#parseComplex} calls, tokens are the positions tried.
+         */
+        PARSE,
+        /**
+         * {@link TextStatistics#getStatistic} of every block, tokens are unique objects.
+         */
+        STATISTICS,
+        /**
+         * Writing of reports, tokens are blocks.
+         */
+        RENDER;
+
+        String getName() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private static final Stage[] STAGES = Stage.values();
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final com.sun.management.ThreadMXBean ALLOCATIONS =
+            THREADS instanceof com.sun.management.ThreadMXBean
+                    && ((com.sun.management.ThreadMXBean) THREADS).isThreadAllocatedMemorySupported()
+                    ? (com.sun.management.ThreadMXBean) THREADS : null;
+
+    private final long start = System.nanoTime();
+    private final Map<Locale, Totals[]> totals = new ConcurrentHashMap<>();
+
+    private static class Totals {
+        final LongAdder calls = new LongAdder();
+        final LongAdder wallNanos = new LongAdder();
+        final LongAdder cpuNanos = new LongAdder();
+        final LongAdder allocatedBytes = new LongAdder();
+        final LongAdder tokens = new LongAdder();
+    }
+
+    @Name("ru.ifmo.rain.vorobev.i18n.Stage")
+    @Label("Text Statistics Stage")
+    @Category("Text Statistics")
+    @Description("Work of one stage of the text analysis")
+    @StackTrace(false)
+    static class StageEvent extends Event {
+        @Label("Stage")
+        String stage;
+        @Label("Locale")
+        String locale;
+        @Label("Wall Time")
+        @Timespan
+        long wallTime;
+        @Label("CPU Time")
+        @Timespan
+        long cpuTime;
+        @Label("Allocated")
+        @DataAmount
+        long allocated;
+        @Label("Tokens")
+        long tokens;
+    }
+
+    /**
+     * Starts a measurement of one stage on the current thread.
+     */
+    Span start(Locale locale, Stage stage) {
+        return new Span(locale, stage);
+    }
+
+    /**
+     * Starts a measurement of several stages of one segment on the current thread.
+     */
+    Clock startClock(Locale locale) {
+        return new Clock(locale);
+    }
+
+    void record(Locale locale, Stage stage, long wallNanos, long cpuNanos, long allocatedBytes, long tokens) {
+        Totals stageTotals = totals.computeIfAbsent(locale, l -> {
+            Totals[] stages = new Totals[STAGES.length];
+            for (int i = 0; i < stages.length; i++) {
+                stages[i] = new Totals();
+            }
+            return stages;
+        })[stage.ordinal()];
+        stageTotals.calls.increment();
+        stageTotals.wallNanos.add(wallNanos);
+        stageTotals.cpuNanos.add(cpuNanos);
+        stageTotals.allocatedBytes.add(allocatedBytes);
+        stageTotals.tokens.add(tokens);
+
+        StageEvent event = new StageEvent();
+        if (event.shouldCommit()) {
+            event.stage = stage.getName();
+            event.locale = locale.toLanguageTag();
+            event.wallTime = wallNanos;
+            event.cpuTime = cpuNanos;
+            event.allocated = allocatedBytes;
+            event.tokens = tokens;
+            event.commit();
+        }
+    }
+
+    long getTokens(Locale locale, Stage stage) {
+        Totals[] stages = totals.get(locale);
+        return stages == null ? 0 : stages[stage.ordinal()].tokens.sum();
+    }
+
+    /**
+     * Writes all measured stages as JSON: the wall time since the metrics were created and
+     * the totals of every stage of every locale, in the order of locale tags and stages.
+     */
+    void writeJson(Path file) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file)) {
+            writer.write("{\n  \"wallNanos\": " + (System.nanoTime() - start) + ",\n");
+            writer.write("  \"processors\": " + Runtime.getRuntime().availableProcessors() + ",\n");
+            writer.write("  \"stages\": [");
+            String separator = "\n";
+            for (Map.Entry<Locale, Totals[]> entry : sortedTotals()) {
+                for (Stage stage : STAGES) {
+                    Totals stageTotals = entry.getValue()[stage.ordinal()];
+                    if (stageTotals.calls.sum() == 0) {
+                        continue;
+                    }
+                    writer.write(separator + "    {\"locale\": "
+                            + ReportFormat.Json.toJson(entry.getKey().toLanguageTag())
+                            + ", \"stage\": \"" + stage.getName()
+                            + "\", \"calls\": " + stageTotals.calls.sum()
+                            + ", \"wallNanos\": " + stageTotals.wallNanos.sum()
+                            + ", \"cpuNanos\": " + stageTotals.cpuNanos.sum()
+                            + ", \"allocatedBytes\": " + stageTotals.allocatedBytes.sum()
+                            + ", \"tokens\": " + stageTotals.tokens.sum() + "}");
+                    separator = ",\n";
+                }
+            }
+            writer.write("\n  ]\n}\n");
+        }
+    }
+
+    /**
+     * Returns a line for every measured stage of every locale, formatted by the bundle pattern
+     * {@code performance.line}.
+     */
+    List<String> format(ResourceBundle bundle, Locale outputLocale) {
+        MessageFormat format = new MessageFormat(bundle.getString("performance.line"), outputLocale);
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<Locale, Totals[]> entry : sortedTotals()) {
+            for (Stage stage : STAGES) {
+                Totals stageTotals = entry.getValue()[stage.ordinal()];
+                if (stageTotals.calls.sum() == 0) {
+                    continue;
+                }
+                lines.add(format.format(new Object[]{
+                        bundle.getString("performance." + stage.getName()),
+                        entry.getKey().toLanguageTag(),
+                        stageTotals.wallNanos.sum() / 1e6,
+                        stageTotals.cpuNanos.sum() / 1e6,
+                        stageTotals.allocatedBytes.sum() / (double) (1 << 20),
+                        stageTotals.tokens.sum()}));
+            }
+        }
+        return lines;
+    }
+
+    private List<Map.Entry<Locale, Totals[]>> sortedTotals() {
+        List<Map.Entry<Locale, Totals[]>> entries = new ArrayList<>(totals.entrySet());
+        entries.sort(Comparator.comparing(entry -> entry.getKey().toLanguageTag()));
+        return entries;
+    }
+
+    private static long cpuTime() {
+        return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : 0;
+    }
+
+    private static long allocatedBytes() {
+        return ALLOCATIONS == null ? 0 : ALLOCATIONS.getCurrentThreadAllocatedBytes();
+    }
+
+    class Span {
+        private final Locale locale;
+        private final Stage stage;
+        private final long wallStart = System.nanoTime();
+        private final long cpuStart = cpuTime();
+        private final long allocatedStart = allocatedBytes();
+
+        private Span(Locale locale, Stage stage) {
+            this.locale = locale;
+            this.stage = stage;
+        }
+
+        void stop(long tokens) {
+            stop(locale, tokens);
+        }
+
+        /**
+         * Stops the measurement of a stage of which the locale is known only at the end, e.g. is detected.
+         */
+        void stop(Locale locale, long tokens) {
+            record(locale, stage, System.nanoTime() - wallStart, cpuTime() - cpuStart,
+                    allocatedBytes() - allocatedStart, tokens);
+        }
+    }
+
+    class Clock {
+        private final Locale locale;
+        private final long cpuStart = cpuTime();
+        private final long[] wallNanos = new long[STAGES.length];
+        private final long[] allocated = new long[STAGES.length];
+        private final long[] tokens = new long[STAGES.length];
+        private Stage stage = null;
+        private long wallStart;
+        private long allocatedStart;
+
+        private Clock(Locale locale) {
+            this.locale = locale;
+        }
+
+        /**
+         * Charges the time and allocations since the last switch to the current stage and starts the given one.
+         */
+        void switchTo(Stage next) {
+            if (next == stage) {
+                return;
+            }
+            long wall = System.nanoTime();
+            long allocatedNow = allocatedBytes();
+            if (stage != null) {
+                wallNanos[stage.ordinal()] += wall - wallStart;
+                allocated[stage.ordinal()] += allocatedNow - allocatedStart;
+            }
+            stage = next;
+            wallStart = wall;
+            allocatedStart = allocatedNow;
+        }
+
+        void count(Stage tokenStage) {
+            tokens[tokenStage.ordinal()]++;
+        }
+
+        void stop() {
+            switchTo(null);
+            long cpu = cpuTime() - cpuStart;
+            long wall = 0;
+            for (long stageWall : wallNanos) {
+                wall += stageWall;
+            }
+            for (Stage measured : STAGES) {
+                int i = measured.ordinal();
+                if (wallNanos[i] > 0 || tokens[i] > 0) {
+                    record(locale, measured, wallNanos[i], wall == 0 ? 0 : Math.round((double) cpu * wallNanos[i] / wall),
+                            allocated[i], tokens[i]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package ru.ifmo.rain.vorobev.i18n;
+
+import java.util.Date;
+
+/**
+ * Count of an object with its key and original text. Objects of tables which are stored in a {@link TextArena}
+ * keep their texts there and create strings only when they are requested, so their keys are compared
+ * by {@link #compareKeyTo} and the methods which read them in place.
+ */
+class ObjectCount {
+    protected String key = null;
+    protected String object = null;
+    protected long count = 0;
+    /**
+     * Value of the object parsed back from its text, if it's a number, e.g. for numbers and currencies.
+     */
+    protected Number number = null;
+    /**
+     * Value of the object parsed back from its text, if it's a date.
+     */
+    protected Date date = null;
+
+    /**
+     * Sets the value of {@link Extractor.Recognizer#getValue}, values of other types than numbers and dates
+     * are ignored.
+     */
+    void setValue(Object value) {
+        if (value instanceof Number) {
+            number = (Number) value;
+        } else if (value instanceof Date) {
+            date = (Date) value;
+        }
+    }
+
+    /**
+     * Returns a count of the same object with its own counter, which can be added to another table.
+     */
+    ObjectCount copy() {
+        ObjectCount copy = new ObjectCount();
+        copy.key = key;
+        copy.object = object;
+        copyCounts(copy);
+        return copy;
+    }
+
+    void copyCounts(ObjectCount copy) {
+        copy.count = count;
+        copy.number = number;
+        copy.date = date;
+    }
+
+    String getKey() {
+        return key;
+    }
+
+    /**
+     * Returns the trimmed original text of the object.
+     */
+    String getObject() {
+        return object;
+    }
+
+    int getObjectLength() {
+        return object.length();
+    }
+
+    int keyLength() {
+        return key.length();
+    }
+
+    char keyCharAt(int index) {
+        return key.charAt(index);
+    }
+
+    /**
+     * Returns the hash code of the key, which is equal to {@code getKey().hashCode()}.
+     */
+    int keyHash() {
+        return key.hashCode();
+    }
+
+    boolean hasKey(String otherKey) {
+        return key.equals(otherKey);
+    }
+
+    /**
+     * Checks if the key is the object lowercased char by char.
+     */
+    boolean hasLowerCaseKey(CharSequence object) {
+        int length = keyLength();
+        if (length != object.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (keyCharAt(i) != toLowerCase(object.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compares keys in their natural order, as {@code getKey().compareTo(other.getKey())}.
+     */
+    int compareKeyTo(ObjectCount other) {
+        if (key != null && other.key != null) {
+            return key.compareTo(other.key);
+        }
+        int length = keyLength();
+        int otherLength = other.keyLength();
+        for (int i = 0; i < Math.min(length, otherLength); i++) {
+            char c = keyCharAt(i);
+            char otherC = other.keyCharAt(i);
+            if (c != otherC) {
+                return c - otherC;
+            }
+        }
+        return length - otherLength;
+    }
+
+    static char toLowerCase(char c) {
+        if (c < 0x80) {
+            return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+        }
+        return Character.toLowerCase(c);
+    }
+}
@@ -0,0 +1,48 @@
+package ru.ifmo.rain.vorobev.i18n;
+
+import java.text.DecimalFormat;
+import java.text.NumberFormat;
+import java.text.ParsePosition;
+import java.util.Locale;
+
+/**
+ * Extractor of percentages in the format of the locale, e.g. "15%" in English or "15 %" in Russian,
+ * which are compared by their values. It's an example provider of {@link Extractor}, which is not registered
+ * by default, as percentages would no longer be counted as numbers: it's enabled by listing it in
+ * {@code META-INF/services/ru.ifmo.rain.vorobev.i18n.Extractor} on the class path.
+ */
+public class PercentExtractor implements Extractor {
+    @Override
+    public String getName() {
+        return "percentages";
+    }
+
+    @Override
+    public boolean comparesValues() {
+        return true;
+    }
+
+    @Override
+    public Recognizer newRecognizer(Locale locale) {
+        NumberFormat format = NumberFormat.getPercentInstance(locale);
+        String starts = format instanceof DecimalFormat
+                ? ((DecimalFormat) format).getPositivePrefix() + ((DecimalFormat) format).getNegativePrefix() : null;
+        return new Recognizer() {
+            @Override
+            public String recognize(String text, ParsePosition position) {
+                int start = position.getIndex();
+                char c = text.charAt(start);
+                // percentages start with a digit or a prefix, so other positions are not parsed
+                if (!Character.isDigit(c) && starts != null && starts.indexOf(c) < 0) {
+                    return null;
+                }
+                return format.parse(text, position) == null ? null : text.substring(start, position.getIndex());
+            }
+
+            @Override
+            public Object getValue(String object) {
+                return format.parse(object, new ParsePosition(0));
+            }
+        };
+    }
+}
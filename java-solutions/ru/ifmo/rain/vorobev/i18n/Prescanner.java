@@ -0,0 +1,186 @@
+package ru.ifmo.rain.vorobev.i18n;
+
+import java.text.*;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.GregorianCalendar;
+import java.util.List;
+
+/**
+ * Cheap check of a position before parsing numbers, currencies and dates at it.
+ * Chars which can start a match are collected from the formats themselves: prefixes and symbols
+ * of {@link DecimalFormat}s, the first field of {@link SimpleDateFormat} patterns and the names from
+ * their {@link DateFormatSymbols}. Names are matched ignoring case, the same way as {@link SimpleDateFormat}
+ * does. A position is rejected only if none of the formats can match there, so the parsing results
+ * stay the same.
+ */
+class Prescanner {
+    private static final int CHARS = Character.MAX_VALUE + 1;
+
+    private final BitSet starts = new BitSet(CHARS);
+    private final BitSet nameStarts = new BitSet(CHARS);
+    private final BitSet startsAfterSpaces = new BitSet(CHARS);
+    private final List<String> names = new ArrayList<>();
+    private boolean acceptAll = false;
+    private boolean numericDates = false;
+
+    Prescanner(DateFormat[] dateFormats, NumberFormat[] numberFormats) {
+        for (NumberFormat format : numberFormats) {
+            addNumberStarts(format);
+        }
+        for (DateFormat format : dateFormats) {
+            addDateStarts(format);
+        }
+        BitSet nameFirsts = new BitSet(CHARS);
+        for (String name : names) {
+            char upper = Character.toUpperCase(name.charAt(0));
+            nameFirsts.set(upper);
+            nameFirsts.set(Character.toLowerCase(upper));
+        }
+        for (int c = 0; c < CHARS; c++) {
+            char upper = Character.toUpperCase((char) c);
+            if (Character.isDigit(c)) {
+                starts.set(c);
+                if (numericDates) {
+                    startsAfterSpaces.set(c);
+                }
+            }
+            if (nameFirsts.get(upper) || nameFirsts.get(Character.toLowerCase(upper))) {
+                nameStarts.set(c);
+            }
+        }
+    }
+
+    /**
+     * Returns {@code false} if no number, currency or date can start at the index.
+     */
+    boolean mayStart(String s, int index) {
+        char c = s.charAt(index);
+        if (acceptAll || starts.get(c) || startsName(s, index)) {
+            return true;
+        }
+        if (c != ' ' && c != '\t') {
+            return false;
+        }
+        // date fields skip spaces before them
+        while (index < s.length() && (s.charAt(index) == ' ' || s.charAt(index) == '\t')) {
+            index++;
+        }
+        return index < s.length() && (startsAfterSpaces.get(s.charAt(index)) || startsName(s, index));
+    }
+
+    private boolean startsName(String s, int index) {
+        if (nameStarts.get(s.charAt(index))) {
+            for (String name : names) {
+                if (s.regionMatches(true, index, name, 0, name.length())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void addNumberStarts(NumberFormat format) {
+        if (!(format instanceof DecimalFormat)) {
+            acceptAll = true;
+            return;
+        }
+        DecimalFormat decimalFormat = (DecimalFormat) format;
+        DecimalFormatSymbols symbols = decimalFormat.getDecimalFormatSymbols();
+        addFirst(symbols.getNaN(), starts);
+        addFirst(decimalFormat.getPositivePrefix(), starts);
+        addFirst(decimalFormat.getNegativePrefix(), starts);
+        if (decimalFormat.getPositivePrefix().isEmpty() || decimalFormat.getNegativePrefix().isEmpty()) {
+            addFirst(symbols.getInfinity(), starts);
+            starts.set(symbols.getDecimalSeparator());
+            starts.set(symbols.getMonetaryDecimalSeparator());
+            starts.set(symbols.getGroupingSeparator());
+            starts.set(symbols.getMonetaryGroupingSeparator());
+        }
+    }
+
+    private void addDateStarts(DateFormat format) {
+        if (!(format instanceof SimpleDateFormat) || !(format.getCalendar() instanceof GregorianCalendar)) {
+            acceptAll = true;
+            return;
+        }
+        SimpleDateFormat simpleFormat = (SimpleDateFormat) format;
+        String pattern = simpleFormat.toPattern();
+        if (pattern.isEmpty()) {
+            acceptAll = true;
+            return;
+        }
+        char first = pattern.charAt(0);
+        if (!(first >= 'a' && first <= 'z' || first >= 'A' && first <= 'Z')) {
+            if (first != '\'') {
+                starts.set(first);
+            } else if (pattern.length() > 1) {
+                starts.set(pattern.charAt(1));
+            } else {
+                acceptAll = true;
+            }
+            return;
+        }
+        int count = 1;
+        while (count < pattern.length() && pattern.charAt(count) == first) {
+            count++;
+        }
+        DateFormatSymbols symbols = simpleFormat.getDateFormatSymbols();
+        switch (first) {
+            case 'G':
+                addNames(symbols.getEras());
+                break;
+            case 'E':
+                addNames(symbols.getWeekdays());
+                addNames(symbols.getShortWeekdays());
+                break;
+            case 'a':
+                addNames(symbols.getAmPmStrings());
+                break;
+            case 'M':
+            case 'L':
+                if (count >= 3) {
+                    addNames(symbols.getMonths());
+                    addNames(symbols.getShortMonths());
+                    break;
+                }
+                addNumericDateStarts(simpleFormat);
+                break;
+            case 'z':
+            case 'Z':
+            case 'X':
+                acceptAll = true;
+                break;
+            default:
+                addNumericDateStarts(simpleFormat);
+        }
+    }
+
+    private void addNumericDateStarts(SimpleDateFormat format) {
+        if (!(format.getNumberFormat() instanceof DecimalFormat)) {
+            acceptAll = true;
+            return;
+        }
+        numericDates = true;
+        DecimalFormat numberFormat = (DecimalFormat) format.getNumberFormat();
+        addFirst(numberFormat.getDecimalFormatSymbols().getNaN(), startsAfterSpaces);
+        addFirst(numberFormat.getDecimalFormatSymbols().getInfinity(), startsAfterSpaces);
+        addFirst(numberFormat.getPositivePrefix(), startsAfterSpaces);
+        addFirst(numberFormat.getNegativePrefix(), startsAfterSpaces);
+        starts.or(startsAfterSpaces);
+    }
+
+    private void addNames(String[] strings) {
+        for (String s : strings) {
+            if (s != null && !s.isEmpty() && !names.contains(s)) {
+                names.add(s);
+            }
+        }
+    }
+
+    private void addFirst(String s, BitSet chars) {
+        if (!s.isEmpty()) {
+            chars.set(s.charAt(0));
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package ru.ifmo.rain.vorobev.i18n;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Progress of an asynchronous analysis: bytes read and tokens processed so far. The analysis stops at the next
+ * check as soon as its future is completed by anyone else, e.g. cancelled or timed out, so the reading loop and
+ * the loops of tokenizers check it every line and every {@value CHECK_INTERVAL} tokens.
+ */
+class Progress {
+    static final int CHECK_INTERVAL = 1 << 10;
+
+    private final CompletableFuture<?> future;
+    private final TextAnalyzer.ProgressListener listener;
+    private final LongAdder tokens = new LongAdder();
+    private volatile long bytes = 0;
+
+    Progress(CompletableFuture<?> future, TextAnalyzer.ProgressListener listener) {
+        this.future = future;
+        this.listener = listener;
+    }
+
+    /**
+     * Throws {@link CancellationException} if the future of the analysis is already completed.
+     */
+    void check() {
+        if (future.isDone()) {
+            throw new CancellationException("Analysis is stopped");
+        }
+    }
+
+    void addTokens(long count) {
+        tokens.add(count);
+    }
+
+    void setBytes(long bytes) {
+        this.bytes = bytes;
+    }
+
+    /**
+     * Passes the current progress to the listener, if it's given.
+     */
+    void report() {
+        if (listener != null) {
+            listener.progress(bytes, tokens.sum());
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package ru.ifmo.rain.vorobev.i18n;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+
+/**
+ * Format of reports, which is written by {@link TextStatistics#writeReports} block by block, so several formats
+ * are written in one pass over the statistics and every format is streamed to its writer.
+ */
+interface ReportFormat {
+    ReportFormat HTML = new Html();
+    ReportFormat JSON = new Json();
+    ReportFormat CSV = new Csv();
+    ReportFormat[] STANDARD = {HTML, JSON, CSV};
+
+    /**
+     * Returns the name of the format, which is the extension of its files too.
+     */
+    String getName();
+
+    String getContentType();
+
+    void writeHeader(TextStatistics statistics, Locale outputLocale, Writer writer) throws IOException;
+
+    /**
+     * Writes the statistics of the block {@code TextStatistics.STATS[index]}.
+     */
+    void writeBlock(TextStatistics statistics, Locale outputLocale, int index, BlockStats block, Writer writer)
+            throws IOException;
+
+    void writeFooter(TextStatistics statistics, Locale outputLocale, Writer writer) throws IOException;
+
+    /**
+     * Returns the standard format of the name, or {@code null} if there is none.
+     */
+    static ReportFormat forName(String name) {
+        for (ReportFormat format : STANDARD) {
+            if (format.getName().equals(name)) {
+                return format;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The report in the output locale, see {@link TextStatistics#writeStatistics}.
+     */
+    class Html implements ReportFormat {
+        @Override
+        public String getName() {
+            return "html";
+        }
+
+        @Override
+        public String getContentType() {
+            return "text/html";
+        }
+
+        @Override
+        public void writeHeader(TextStatistics statistics, Locale outputLocale, Writer writer) throws IOException {
+            statistics.writeHtmlHeader(outputLocale, writer);
+        }
+
+        @Override
+        public void writeBlock(TextStatistics statistics, Locale outputLocale, int index, BlockStats block,
+                               Writer writer) throws IOException {
+            statistics.writeStatisticsToHtml(outputLocale, TextStatistics.STATS[index], writer, block);
+        }
+
+        @Override
+        public void writeFooter(TextStatistics statistics, Locale outputLocale, Writer writer) throws IOException {
+            statistics.writeHtmlFooter(outputLocale, writer);
+        }
+    }
+
+    /**
+     * One object with the input file and locale and the figures of every block as they are, without
+     * the output locale. Objects which are absent are {@code null}.
+     */
+    class Json implements ReportFormat {
+        @Override
+        public String getName() {
+            return "json";
+        }
+
+        @Override
+        public String getContentType() {
+            return "application/json";
+        }
+
+        @Override
+        public void writeHeader(TextStatistics statistics, Locale outputLocale, Writer writer) throws IOException {
+            writer.write("{\"inputFile\": " + toJson(statistics.inputFile)
+                    + ", \"locale\": " + toJson(statistics.inputLocale.toLanguageTag())
+                    + ", \"approximate\": " + (statistics.getBlockStats()[0].uniqueError > 0) + ", \"blocks\": {");
+        }
+
+        @Override
+        public void writeBlock(TextStatistics statistics, Locale outputLocale, int index, BlockStats block,
+                               Writer writer) throws IOException {
+            boolean isEmpty = block.objectMinLength.equals(BlockStats.nullS);
+            writer.write((index > 0 ? ", " : "") + toJson(TextStatistics.STATS[index])
+                    + ": {\"count\": " + block.count + ", \"unique\": " + block.unique
+                    + ", \"uniqueError\": " + block.uniqueError
+                    + ", \"min\": " + toJsonObject(block.minObject) + ", \"max\": " + toJsonObject(block.maxObject)
+                    + ", \"minLength\": " + (isEmpty ? "null" : block.objectMinLength.length())
+                    + ", \"shortest\": " + toJsonObject(block.objectMinLength)
+                    + ", \"maxLength\": " + (isEmpty ? "null" : block.objectMaxLength.length())
+                    + ", \"longest\": " + toJsonObject(block.objectMaxLength)
+                    + ", \"averageLength\": " + (block.count > 0 ? (double) block.sumLength / block.count : "null")
+                    + ", \"top\": [");
+            for (int i = 0; i < block.topObjects.length; i++) {
+                writer.write((i > 0 ? ", " : "") + "{\"object\": " + toJson(block.topObjects[i])
+                        + ", \"count\": " + block.topCounts[i] + "}");
+            }
+            writer.write("], \"topError\": " + block.topError + ", \"lengths\": [");
+            for (int i = 0; i < block.lengthHistogram.length; i++) {
+                writer.write((i > 0 ? ", " : "") + block.lengthHistogram[i]);
+            }
+            writer.write("]}");
+        }
+
+        @Override
+        public void writeFooter(TextStatistics statistics, Locale outputLocale, Writer writer) throws IOException {
+            writer.write("}}\n");
+        }
+
+        private static String toJsonObject(String object) {
+            return object.equals(BlockStats.nullS) ? "null" : toJson(object);
+        }
+
+        /**
+         * Returns the string as a JSON string literal.
+         */
+        static String toJson(String s) {
+            StringBuilder json = new StringBuilder("\"");
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c == '"' || c == '\\') {
+                    json.append('\\').append(c);
+                } else if (c < ' ') {
+                    json.append(String.format("\\u%04x", (int) c));
+                } else {
+                    json.append(c);
+                }
+            }
+            return json.append('"').toString();
+        }
+    }
+
+    /**
+     * RFC 4180 table with a header and a row for every block: the figures of the block, its
+     * {@value BlockStats#TOP_SIZE} most frequent objects with counts and its histogram of lengths.
+     * Absent objects and figures are empty.
+     */
+    class Csv implements ReportFormat {
+        @Override
+        public String getName() {
+            return "csv";
+        }
+
+        @Override
+        public String getContentType() {
+            return "text/csv";
+        }
+
+        @Override
+        public void writeHeader(TextStatistics statistics, Locale outputLocale, Writer writer) throws IOException {
+            StringBuilder header = new StringBuilder("block,count,unique,unique_error,min,max,"
+                    + "min_length,shortest,max_length,longest,average_length,top_error");
+            for (int i = 1; i <= BlockStats.TOP_SIZE; i++) {
+                header.append(",top_").append(i).append(",top_").append(i).append("_count");
+            }
+            for (int i = 0; i < BlockStats.HISTOGRAM_BUCKETS; i++) {
+                header.append(",length_").append(BlockStats.bucketLabel(i).replace('–', '-'));
+            }
+            writer.write(header.append("\r\n").toString());
+        }
+
+        @Override
+        public void writeBlock(TextStatistics statistics, Locale outputLocale, int index, BlockStats block,
+                               Writer writer) throws IOException {
+            boolean isEmpty = block.objectMinLength.equals(BlockStats.nullS);
+            StringBuilder row = new StringBuilder(TextStatistics.STATS[index]);
+            row.append(',').append(block.count)
+                    .append(',').append(block.unique)
+                    .append(',').append(block.uniqueError)
+                    .append(',').append(toCsv(block.minObject))
+                    .append(',').append(toCsv(block.maxObject))
+                    .append(',').append(isEmpty ? "" : block.objectMinLength.length())
+                    .append(',').append(toCsv(block.objectMinLength))
+                    .append(',').append(isEmpty ? "" : block.objectMaxLength.length())
+                    .append(',').append(toCsv(block.objectMaxLength))
+                    .append(',').append(block.count > 0 ? Double.toString((double) block.sumLength / block.count) : "")
+                    .append(',').append(block.topError);
+            for (int i = 0; i < BlockStats.TOP_SIZE; i++) {
+                row.append(',').append(i < block.topObjects.length ? toCsv(block.topObjects[i]) : "")
+                        .append(',').append(i < block.topObjects.length ? Long.toString(block.topCounts[i]) : "");
+            }
+            for (long bucket : block.lengthHistogram) {
+                row.append(',').append(bucket);
+            }
+            writer.write(row.append("\r\n").toString());
+        }
+
+        @Override
+        public void writeFooter(TextStatistics statistics, Locale outputLocale, Writer writer) {
+        }
+
+        private static String toCsv(String object) {
+            if (object.equals(BlockStats.nullS)) {
+                return "";
+            }
+            if (object.indexOf(',') < 0 && object.indexOf('"') < 0 && object.indexOf('\n') < 0
+                    && object.indexOf('\r') < 0) {
+                return object;
+            }
+            return '"' + object.replace("\"", "\"\"") + '"';
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package ru.ifmo.rain.vorobev.i18n;
+
+import java.util.*;
+
+/**
+ * Statistics of one block in bounded memory, for the approximate mode of {@link TextAnalyzer}.
+ * Counts are added by batches of frequency tables, in the order of the text.
+ * <ul>
+ * <li>The number of unique objects is estimated by a HyperLogLog of {@code 2^precision} registers
+ * with the relative standard error {@code 1.04 / sqrt(2^precision)}.</li>
+ * <li>The most frequent objects are kept by the Misra-Gries summary of {@code capacity} counters,
+ * a kept count is less than the real one by at most {@link #getFrequencyError()}, and every object
+ * which is more frequent than that is kept.</li>
+ * <li>Count, average length, histogram of lengths, objects of minimal and maximal keys and lengths are exact, minimal and maximal
+ * values, e.g. of numbers, currencies and dates, are exact among the objects which have been parsed back. Keys are compared by
+ * the collators of the added tables, if they are ordered, see {@link FrequencyTable#orderBy}.</li>
+ * </ul>
+ */
+class Sketch {
+    static final int MIN_PRECISION = 7;
+    static final int MAX_PRECISION = 18;
+
+    private final boolean byValue;
+    private final int precision;
+    private final byte[] registers;
+    private final int capacity;
+    private final Map<String, Counter> frequent = new HashMap<>();
+    private long frequencyError = 0;
+
+    private long count = 0;
+    private long sumLength = 0;
+    private final long[] lengthHistogram = new long[BlockStats.HISTOGRAM_BUCKETS];
+    private ObjectCount minKey = null;
+    private ObjectCount maxKey = null;
+    private ObjectCount minLength = null;
+    private ObjectCount maxLength = null;
+    private ObjectCount minValue = null;
+    private ObjectCount maxValue = null;
+
+    /**
+     * Creates a sketch for the block, which is one of {@link TextStatistics#stats}.
+     */
+    Sketch(String keyEnd, int precision, int capacity) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("Precision must be from " + MIN_PRECISION + " to " + MAX_PRECISION);
+        }
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.byValue = TextStatistics.comparesValues(keyEnd);
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+        this.capacity = capacity;
+    }
+
+    /**
+     * Adds counts of the table, which follows all tables added before in the text.
+     */
+    void add(FrequencyTable table) {
+        table.forEach(this::add);
+        if (table.getMin() != null) {
+            addExtremes(table);
+        }
+        if (frequent.size() > capacity) {
+            reduceFrequent();
+        }
+    }
+
+    private void add(ObjectCount curCount) {
+        String key = curCount.getKey();
+        int length = curCount.getObjectLength();
+        count += curCount.count;
+        sumLength += curCount.count * length;
+        lengthHistogram[BlockStats.lengthBucket(length)] += curCount.count;
+
+        long hash = hash(key);
+        int index = (int) (hash >>> (64 - precision));
+        byte rank = (byte) Math.min(Long.numberOfLeadingZeros(hash << precision) + 1, 64 - precision + 1);
+        if (registers[index] < rank) {
+            registers[index] = rank;
+        }
+
+        Counter counter = frequent.get(key);
+        if (counter == null) {
+            frequent.put(key, new Counter(key, curCount.getObject(), curCount.count));
+        } else {
+            counter.count += curCount.count;
+        }
+
+        minLength = minLength == null
+                || TextStatistics.isBefore(minLength.getObjectLength() - length, curCount, minLength)
+                ? curCount : minLength;
+        maxLength = maxLength == null
+                || TextStatistics.isBefore(length - maxLength.getObjectLength(), curCount, maxLength)
+                ? curCount : maxLength;
+        if (byValue && curCount.number != null) {
+            double value = curCount.number.doubleValue();
+            minValue = minValue == null
+                    || TextStatistics.isBefore(Double.compare(minValue.number.doubleValue(), value), curCount, minValue)
+                    ? curCount : minValue;
+            maxValue = maxValue == null
+                    || TextStatistics.isBefore(Double.compare(value, maxValue.number.doubleValue()), curCount, maxValue)
+                    ? curCount : maxValue;
+        } else if (byValue && curCount.date != null) {
+            long time = curCount.date.getTime();
+            minValue = minValue == null
+                    || TextStatistics.isBefore(Long.compare(minValue.date.getTime(), time), curCount, minValue)
+                    ? curCount : minValue;
+            maxValue = maxValue == null
+                    || TextStatistics.isBefore(Long.compare(time, maxValue.date.getTime()), curCount, maxValue)
+                    ? curCount : maxValue;
+        }
+    }
+
+    /**
+     * Keeps the least and the greatest keys of the ordered table, objects of keys which have been added before
+     * are kept, as they occurred earlier.
+     */
+    private void addExtremes(FrequencyTable table) {
+        ObjectCount min = table.getMin();
+        ObjectCount max = table.getMax();
+        if (minKey == null || table.compare(min.getKey(), minKey.getKey()) < 0) {
+            minKey = min;
+        }
+        if (maxKey == null || table.compare(max.getKey(), maxKey.getKey()) > 0) {
+            maxKey = max;
+        }
+    }
+
+    /**
+     * Decrements all counters by the count of the counter after the {@code capacity} biggest ones
+     * and removes the counters which drop to zero.
+     */
+    private void reduceFrequent() {
+        long[] counts = new long[frequent.size()];
+        int i = 0;
+        for (Counter counter : frequent.values()) {
+            counts[i++] = counter.count;
+        }
+        Arrays.sort(counts);
+        long decrement = counts[counts.length - capacity - 1];
+        frequent.values().removeIf(counter -> (counter.count -= decrement) <= 0);
+        frequencyError += decrement;
+    }
+
+    /**
+     * Returns the kept counters from the most frequent, with the counters of the same count in the order of keys.
+     */
+    List<Counter> getFrequent() {
+        List<Counter> counters = new ArrayList<>(frequent.values());
+        counters.sort(Comparator.comparingLong((Counter counter) -> -counter.count)
+                .thenComparing(counter -> counter.key));
+        return counters;
+    }
+
+    long getFrequencyError() {
+        return frequencyError;
+    }
+
+    long getUniqueEstimate() {
+        int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += Math.scalb(1.0, -register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        double estimate = 0.7213 / (1 + 1.079 / m) * m * m / sum;
+        if (estimate <= 2.5 * m && zeros > 0) {
+            estimate = m * Math.log((double) m / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * Returns the relative standard error of the unique count estimate.
+     */
+    double getUniqueError() {
+        return 1.04 / Math.sqrt(registers.length);
+    }
+
+    BlockStats getBlockStats() {
+        BlockStats block = new BlockStats();
+        block.count = count;
+        block.sumLength = sumLength;
+        block.unique = getUniqueEstimate();
+        if (count > 0) {
+            ObjectCount min = byValue ? minValue : minKey;
+            ObjectCount max = byValue ? maxValue : maxKey;
+            block.minObject = min == null ? BlockStats.nullS : min.getObject();
+            block.maxObject = max == null ? BlockStats.nullS : max.getObject();
+            block.objectMinLength = minLength.getObject();
+            block.objectMaxLength = maxLength.getObject();
+        }
+        List<Counter> counters = getFrequent();
+        int topSize = Math.min(BlockStats.TOP_SIZE, counters.size());
+        block.topObjects = new String[topSize];
+        block.topCounts = new long[topSize];
+        for (int i = 0; i < topSize; i++) {
+            block.topObjects[i] = counters.get(i).object;
+            block.topCounts[i] = counters.get(i).count;
+        }
+        block.topError = frequencyError;
+        block.uniqueError = getUniqueError();
+        block.lengthHistogram = lengthHistogram.clone();
+        return block;
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the chars with the MurmurHash3 finalizer, as registers of HyperLogLog
+     * are chosen by the high bits of the hash and ranks are taken from the rest.
+     */
+    private static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash = (hash ^ key.charAt(i)) * 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    static class Counter {
+        final String key;
+        final String object;
+        long count;
+
+        Counter(String key, String object, long count) {
+            this.key = key;
+            this.object = object;
+            this.count = count;
+        }
+    }
+}
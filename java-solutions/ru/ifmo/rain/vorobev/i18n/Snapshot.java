@@ -0,0 +1,386 @@
+package ru.ifmo.rain.vorobev.i18n;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Binary snapshot of computed statistics, which can be rendered in any output locale or merged with other
+ * snapshots without analyzing the texts again.
+ * <p>
+ * A snapshot holds the input locale and file, the names and the statistics of all blocks and the frequency tables.
+ * Snapshots can be read only with the same blocks, i.e. with the same providers of {@link Extractor}.
+ * Tables are written as they are hashed, an entry repeated in several tables is written once and then referenced
+ * by its number, numbers are written as variable-length integers. Snapshots are read at once rather than mapped,
+ * so they can be replaced right after reading, and the tables, which take most of a snapshot, are skipped when
+ * only the report is rendered.
+ */
+class Snapshot {
+    private static final int MAGIC = 0x5453534E;
+    private static final int VERSION = 6;
+
+    private Snapshot() {
+    }
+
+    /**
+     * Writes the snapshot to a temporary file which then replaces the file.
+     */
+    static void write(TextStatistics statistics, Path file) throws IOException {
+        writeAtomically(file, out -> {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeString(out, statistics.inputLocale.toLanguageTag());
+            writeString(out, statistics.inputFile);
+            writeBlockNames(out);
+            for (BlockStats block : statistics.getBlockStats()) {
+                writeVarLong(out, block.count);
+                writeVarLong(out, block.unique);
+                writeVarLong(out, block.sumLength);
+                writeString(out, block.minObject);
+                writeString(out, block.maxObject);
+                writeString(out, block.objectMinLength);
+                writeString(out, block.objectMaxLength);
+                writeVarInt(out, block.topObjects.length);
+                for (int i = 0; i < block.topObjects.length; i++) {
+                    writeString(out, block.topObjects[i]);
+                    writeVarLong(out, block.topCounts[i]);
+                }
+                writeVarLong(out, block.topError);
+                out.writeDouble(block.uniqueError);
+                for (long bucket : block.lengthHistogram) {
+                    writeVarLong(out, bucket);
+                }
+            }
+            writeTables(out, statistics.objectsCount);
+        });
+    }
+
+    static TextStatistics read(TextAnalyzer analyzer, Path file) throws IOException {
+        return read(analyzer, file, true);
+    }
+
+    /**
+     * Reads only the statistics of blocks, which is enough to render the report, but not to merge the snapshot.
+     */
+    static TextStatistics readSummary(TextAnalyzer analyzer, Path file) throws IOException {
+        return read(analyzer, file, false);
+    }
+
+    private static TextStatistics read(TextAnalyzer analyzer, Path file, boolean withTables) throws IOException {
+        ByteBuffer in = readAll(file);
+        try {
+            if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+                throw new IOException(file + " is not a statistics snapshot");
+            }
+            Locale inputLocale = Locale.forLanguageTag(readString(in));
+            String inputFile = readString(in);
+            List<String> names = readBlockNames(in);
+            if (!names.equals(List.of(TextStatistics.STATS))) {
+                throw new IOException("Snapshot " + file + " has blocks " + names + ", not "
+                        + List.of(TextStatistics.STATS));
+            }
+            BlockStats[] blocks = new BlockStats[TextStatistics.STATS_COUNT];
+            for (int i = 0; i < blocks.length; i++) {
+                blocks[i] = new BlockStats();
+                blocks[i].count = readVarLong(in);
+                blocks[i].unique = readVarLong(in);
+                blocks[i].sumLength = readVarLong(in);
+                blocks[i].minObject = readString(in);
+                blocks[i].maxObject = readString(in);
+                blocks[i].objectMinLength = readString(in);
+                blocks[i].objectMaxLength = readString(in);
+                int topSize = readVarInt(in);
+                blocks[i].topObjects = new String[topSize];
+                blocks[i].topCounts = new long[topSize];
+                for (int j = 0; j < topSize; j++) {
+                    blocks[i].topObjects[j] = readString(in);
+                    blocks[i].topCounts[j] = readVarLong(in);
+                }
+                blocks[i].topError = readVarLong(in);
+                blocks[i].uniqueError = in.getDouble();
+                for (int j = 0; j < BlockStats.HISTOGRAM_BUCKETS; j++) {
+                    blocks[i].lengthHistogram[j] = readVarLong(in);
+                }
+            }
+            ArrayList<FrequencyTable> objectsCount = withTables ? readTables(in) : null;
+            return new TextStatistics(analyzer, inputLocale, inputFile, objectsCount, blocks);
+        } catch (RuntimeException e) {
+            throw new IOException("Snapshot " + file + " is corrupted", e);
+        }
+    }
+
+    private static boolean isApproximate(TextStatistics statistics) {
+        for (BlockStats block : statistics.getBlockStats()) {
+            if (block.uniqueError > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Merges snapshots in the given order, objects of the first snapshot are kept for the keys found in several.
+     * All snapshots must be of the same input locale, as keys depend on it, and exact, as approximate ones
+     * keep only the sketches' estimates and no tables.
+     */
+    static TextStatistics merge(TextAnalyzer analyzer, List<Path> files) throws IOException {
+        TextStatistics merged = null;
+        StringJoiner inputFiles = new StringJoiner(", ");
+        for (Path file : files) {
+            TextStatistics statistics = read(analyzer, file);
+            if (isApproximate(statistics)) {
+                throw new IOException("Snapshot " + file + " is of approximate statistics, which can't be merged");
+            }
+            inputFiles.add(statistics.inputFile);
+            if (merged == null) {
+                merged = statistics;
+            } else if (!merged.inputLocale.equals(statistics.inputLocale)) {
+                throw new IOException("Snapshot " + file + " is of locale " + statistics.inputLocale
+                        + ", not " + merged.inputLocale);
+            } else {
+                merged.merge(statistics);
+            }
+        }
+        if (merged == null) {
+            throw new IllegalArgumentException("No snapshots to merge");
+        }
+        merged.inputFile = inputFiles.toString();
+        return merged;
+    }
+
+    /**
+     * Writes the tables in the order of their hash tables, so they are neither sorted nor copied.
+     * An entry of the same key and object as a written one, e.g. a line which is a sentence, is written
+     * as the number of that entry, otherwise its key and object follow, or only the key if they are equal.
+     */
+    static void writeTables(DataOutputStream out, List<FrequencyTable> objectsCount) throws IOException {
+        WrittenEntries written = new WrittenEntries();
+        writeVarInt(out, objectsCount.size());
+        for (FrequencyTable table : objectsCount) {
+            writeVarInt(out, table.size());
+            try {
+                table.forEach(curCount -> {
+                    try {
+                        writeEntry(out, curCount, written);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    private static void writeEntry(DataOutputStream out, ObjectCount curCount, WrittenEntries written)
+            throws IOException {
+        int entry = written.find(curCount);
+        if (entry >= 0) {
+            writeVarInt(out, entry + 2);
+        } else {
+            String key = curCount.getKey();
+            String object = curCount.getObject();
+            if (key.equals(object)) {
+                writeVarInt(out, 1);
+                writeString(out, key);
+            } else {
+                writeVarInt(out, 0);
+                writeString(out, key);
+                writeString(out, object);
+            }
+        }
+        writeVarLong(out, curCount.count);
+        if (curCount.number == null) {
+            out.writeByte(0);
+        } else if (curCount.number instanceof Long) {
+            out.writeByte(1);
+            out.writeLong(curCount.number.longValue());
+        } else {
+            out.writeByte(2);
+            out.writeDouble(curCount.number.doubleValue());
+        }
+        if (curCount.date == null) {
+            out.writeByte(0);
+        } else {
+            out.writeByte(1);
+            out.writeLong(curCount.date.getTime());
+        }
+    }
+
+    /**
+     * Reads the tables, texts of sentences and lines are stored in arenas as they are read,
+     * as when the tables are counted by {@link TextAnalyzer}.
+     */
+    static ArrayList<FrequencyTable> readTables(ByteBuffer in) {
+        int tablesCount = readVarInt(in);
+        ArrayList<FrequencyTable> objectsCount = new ArrayList<>(tablesCount);
+        for (int i = 0; i < tablesCount; i++) {
+            objectsCount.add(new FrequencyTable());
+        }
+        TextAnalyzer.storeTables(objectsCount);
+        List<ObjectCount> entries = new ArrayList<>();
+        for (FrequencyTable table : objectsCount) {
+            int size = readVarInt(in);
+            for (int j = 0; j < size; j++) {
+                int entry = readVarInt(in);
+                ObjectCount curCount;
+                if (entry >= 2) {
+                    ObjectCount written = entries.get(entry - 2);
+                    curCount = table.add(written.getKey(), written.getObject());
+                } else {
+                    String key = readString(in);
+                    curCount = table.add(key, entry == 1 ? key : readString(in));
+                }
+                entries.add(curCount);
+                curCount.count = readVarLong(in);
+                byte numberType = in.get();
+                if (numberType == 1) {
+                    curCount.number = in.getLong();
+                } else if (numberType == 2) {
+                    curCount.number = in.getDouble();
+                }
+                if (in.get() > 0) {
+                    curCount.date = new Date(in.getLong());
+                }
+            }
+        }
+        return objectsCount;
+    }
+
+    /**
+     * Numbers of the written entries, which are found by the hashes of their keys and compared in place,
+     * so only references to the counts are kept.
+     */
+    private static class WrittenEntries {
+        private ObjectCount[] counts = new ObjectCount[16];
+        private int[] numbers = new int[16];
+        private int size = 0;
+
+        /**
+         * Returns the number of the written entry of the same key and object,
+         * or -1 if there is none and the count is added as the next entry.
+         */
+        int find(ObjectCount curCount) {
+            int hash = curCount.keyHash();
+            int mask = counts.length - 1;
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            for (; counts[slot] != null; slot = (slot + 1) & mask) {
+                ObjectCount other = counts[slot];
+                if (other.keyHash() == hash && other.compareKeyTo(curCount) == 0
+                        && other.getObject().equals(curCount.getObject())) {
+                    return numbers[slot];
+                }
+            }
+            counts[slot] = curCount;
+            numbers[slot] = size++;
+            if (size * 4 > counts.length * 3) {
+                ObjectCount[] oldCounts = counts;
+                int[] oldNumbers = numbers;
+                counts = new ObjectCount[oldCounts.length * 2];
+                numbers = new int[oldCounts.length * 2];
+                mask = counts.length - 1;
+                for (int i = 0; i < oldCounts.length; i++) {
+                    if (oldCounts[i] != null) {
+                        int oldHash = oldCounts[i].keyHash();
+                        int newSlot = (oldHash ^ (oldHash >>> 16)) & mask;
+                        while (counts[newSlot] != null) {
+                            newSlot = (newSlot + 1) & mask;
+                        }
+                        counts[newSlot] = oldCounts[i];
+                        numbers[newSlot] = oldNumbers[i];
+                    }
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Reads the whole file to the heap rather than mapping it, as a mapped file can't be replaced
+     * on some platforms until the mapping is garbage collected.
+     */
+    static ByteBuffer readAll(Path file) throws IOException {
+        return ByteBuffer.wrap(Files.readAllBytes(file));
+    }
+
+    interface Content {
+        void writeTo(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Writes the file through a temporary file, so the previous version is kept if writing fails.
+     */
+    static void writeAtomically(Path file, Content content) throws IOException {
+        Path absolute = file.toAbsolutePath();
+        Path temp = Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                content.writeTo(out);
+            }
+            Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Writes the names of all blocks, which depend on the registered extractors.
+     */
+    static void writeBlockNames(DataOutputStream out) throws IOException {
+        writeVarInt(out, TextStatistics.STATS_COUNT);
+        for (String name : TextStatistics.STATS) {
+            writeString(out, name);
+        }
+    }
+
+    static List<String> readBlockNames(ByteBuffer in) {
+        String[] names = new String[readVarInt(in)];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = readString(in);
+        }
+        return List.of(names);
+    }
+
+    static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[readVarInt(in)];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        writeVarLong(out, value & 0xFFFFFFFFL);
+    }
+
+    static int readVarInt(ByteBuffer in) {
+        return (int) readVarLong(in);
+    }
+
+    static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+}
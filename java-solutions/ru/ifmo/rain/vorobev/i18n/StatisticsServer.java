@@ -0,0 +1,297 @@
+package ru.ifmo.rain.vorobev.i18n;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HTTP service which analyzes posted texts with one long-lived {@link TextAnalyzer}, so tokenizers, formats
+ * and bundles of every locale are created once and stay warm between requests.
+ * <p>
+ * {@code POST /analyze?input=<locale>&output=<locale>&format=html|json|csv} analyzes the request body, decoded
+ * by the charset of its content type, UTF-8 by default, and streams the report of the {@link ReportFormat}
+ * in the output locale. The input locale {@code auto} is detected from the body, see {@link LocaleDetector}.
+ * {@code GET /health} responds with {@code OK}.
+ * <p>
+ * At most {@code maxConcurrent} texts are analyzed at once, and at most {@code maxQueued} more requests wait
+ * for their turn; further requests are rejected with 503 at once, so clients back off instead of piling up.
+ * Connections which find all threads busy wait in a bounded queue, the ones beyond it are answered with 503
+ * by a few threads of their own, and the rest are closed, so neither threads nor queues grow under load.
+ * Bodies longer than {@code maxBodySize} bytes are rejected with 413 before or while they are read,
+ * and bodies are decoded as they are read.
+ */
+class StatisticsServer {
+    static final String ANALYZE_PATH = "/analyze";
+    static final String HEALTH_PATH = "/health";
+    /**
+     * Threads beyond the admitted requests, which answer the rest with 503 or health checks without waiting.
+     */
+    private static final int SPARE_THREADS = 2;
+    /**
+     * Set while a connection rejected by the executor is handled by the rejecting threads.
+     */
+    private static final ThreadLocal<Boolean> REJECTED = ThreadLocal.withInitial(() -> false);
+
+    private final TextAnalyzer analyzer;
+    private final int maxBodySize;
+    private final Semaphore admitted;
+    private final Semaphore analyzing;
+    private final ThreadPoolExecutor executor;
+    private final ThreadPoolExecutor rejecter;
+    private final HttpServer server;
+
+    StatisticsServer(TextAnalyzer analyzer, int port, int maxConcurrent, int maxQueued, int maxBodySize)
+            throws IOException {
+        if (maxConcurrent < 1 || maxQueued < 0 || maxBodySize < 0) {
+            throw new IllegalArgumentException("Limits must be positive");
+        }
+        this.analyzer = analyzer;
+        this.maxBodySize = maxBodySize;
+        this.admitted = new Semaphore(maxConcurrent + maxQueued);
+        this.analyzing = new Semaphore(maxConcurrent, true);
+        int threads = maxConcurrent + maxQueued + SPARE_THREADS;
+        // connections rejected by the rejecter too are closed by the server
+        this.rejecter = new ThreadPoolExecutor(SPARE_THREADS, SPARE_THREADS, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(SPARE_THREADS));
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(maxQueued + SPARE_THREADS), (task, pool) -> reject(task));
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.setExecutor(executor);
+        server.createContext(ANALYZE_PATH, this::analyze);
+        server.createContext(HEALTH_PATH, exchange -> respond(exchange, 200, "text/plain", "OK"));
+    }
+
+    void start() {
+        server.start();
+    }
+
+    /**
+     * Returns the port the server listens on, e.g. the one chosen by the system for port 0.
+     */
+    int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stops accepting requests and waits at most {@code delay} seconds for the current ones.
+     */
+    void stop(int delay) {
+        server.stop(delay);
+        executor.shutdownNow();
+        rejecter.shutdownNow();
+    }
+
+    /**
+     * Analyzes the texts of the given locales once, so the first requests in them don't pay for the warm-up.
+     */
+    void warmUp(Locale... locales) {
+        analyzer.detectLocale("Warm up the language model once for the texts of input=auto.");
+        for (Locale locale : locales) {
+            analyzer.analyze("Warm up 1,234.5 on 1 January 2020. $5 or 5 € again.\n", locale).getBlockStats();
+        }
+    }
+
+    /**
+     * Passes the rejected connection to the rejecting threads, where the request is answered with 503
+     * without reading its body.
+     */
+    private void reject(Runnable task) {
+        rejecter.execute(() -> {
+            REJECTED.set(true);
+            try {
+                task.run();
+            } finally {
+                REJECTED.set(false);
+            }
+        });
+    }
+
+    private void analyze(HttpExchange exchange) throws IOException {
+        boolean streaming = false;
+        try {
+            if (REJECTED.get()) {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                respond(exchange, 503, "text/plain", "Too many requests");
+                return;
+            }
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                respond(exchange, 405, "text/plain", "Only POST is allowed");
+                return;
+            }
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            boolean detect = LocaleDetector.AUTO.equals(query.get("input"));
+            Locale inputLocale = query.containsKey("input") && !detect
+                    ? TextStatistics.getLocale(query.get("input")) : null;
+            Locale outputLocale = TextStatistics.getLocale(query.getOrDefault("output", "en"));
+            ReportFormat format = ReportFormat.forName(query.getOrDefault("format", "html"));
+            if (inputLocale == null && !detect || outputLocale == null || format == null) {
+                respond(exchange, 400, "text/plain",
+                        "Expected input=<locale>|auto, output=<locale> and format=html|json|csv");
+                return;
+            }
+            Charset charset = getCharset(exchange.getRequestHeaders().getFirst("Content-Type"));
+            if (charset == null) {
+                respond(exchange, 415, "text/plain", "Unsupported charset");
+                return;
+            }
+            String length = exchange.getRequestHeaders().getFirst("Content-Length");
+            if (length != null && Long.parseLong(length.trim()) > maxBodySize) {
+                respond(exchange, 413, "text/plain", "Body is longer than " + maxBodySize + " bytes");
+                return;
+            }
+            if (!admitted.tryAcquire()) {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                respond(exchange, 503, "text/plain", "Too many requests");
+                return;
+            }
+            try {
+                String text = readBody(exchange.getRequestBody(), charset);
+                if (text == null) {
+                    respond(exchange, 413, "text/plain", "Body is longer than " + maxBodySize + " bytes");
+                    return;
+                }
+                analyzing.acquire();
+                TextStatistics statistics;
+                try {
+                    statistics = analyzer.analyze(text, detect ? analyzer.detectLocale(text) : inputLocale);
+                    statistics.getBlockStats();
+                } finally {
+                    analyzing.release();
+                }
+                // the report is streamed after the analysis, so slow clients don't hold analysis permits
+                exchange.getResponseHeaders().set("Content-Type", format.getContentType() + "; charset=UTF-8");
+                exchange.sendResponseHeaders(200, 0);
+                streaming = true;
+                try (Writer writer = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(),
+                        StandardCharsets.UTF_8))) {
+                    statistics.writeReports(outputLocale, List.of(format), List.of(writer));
+                }
+            } finally {
+                admitted.release();
+            }
+        } catch (NumberFormatException e) {
+            respond(exchange, 400, "text/plain", "Wrong Content-Length");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            respond(exchange, 503, "text/plain", "Server is stopping");
+        } catch (RuntimeException e) {
+            logError(e);
+            if (!streaming) {
+                // after the headers of 200 are sent, the client sees the error as a cut short report
+                respond(exchange, 500, "text/plain", "Analysis error");
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Decodes the body as it's read, returns {@code null} as soon as it's longer than the limit.
+     */
+    private String readBody(InputStream in, Charset charset) throws IOException {
+        LimitedInputStream limited = new LimitedInputStream(in, maxBodySize);
+        Reader reader = new InputStreamReader(limited, charset);
+        StringBuilder text = new StringBuilder();
+        char[] buffer = new char[1 << 14];
+        int read;
+        while ((read = reader.read(buffer)) >= 0) {
+            text.append(buffer, 0, read);
+        }
+        return limited.exceeded ? null : text.toString();
+    }
+
+    /**
+     * Ends the stream once more than the limit is read and marks it as exceeded.
+     */
+    private static class LimitedInputStream extends FilterInputStream {
+        private long remaining;
+        private boolean exceeded = false;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (exceeded) {
+                return -1;
+            }
+            int read = in.read(b, off, (int) Math.min(len, remaining + 1));
+            if (read > remaining) {
+                exceeded = true;
+                return -1;
+            }
+            if (read > 0) {
+                remaining -= read;
+            }
+            return read;
+        }
+    }
+
+    private static Charset getCharset(String contentType) {
+        if (contentType != null) {
+            for (String parameter : contentType.split(";")) {
+                String[] pair = parameter.trim().split("=", 2);
+                if (pair.length == 2 && pair[0].trim().equalsIgnoreCase("charset")) {
+                    String name = pair[1].trim().replace("\"", "");
+                    try {
+                        return Charset.forName(name);
+                    } catch (IllegalArgumentException e) {
+                        return null;
+                    }
+                }
+            }
+        }
+        return StandardCharsets.UTF_8;
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> parameters = new HashMap<>();
+        if (query != null) {
+            for (String parameter : query.split("&")) {
+                String[] pair = parameter.split("=", 2);
+                parameters.put(URLDecoder.decode(pair[0], StandardCharsets.UTF_8),
+                        pair.length > 1 ? URLDecoder.decode(pair[1], StandardCharsets.UTF_8) : "");
+            }
+        }
+        return parameters;
+    }
+
+    private static void logError(Throwable e) {
+        synchronized (System.err) {
+            System.err.print("Analysis error: ");
+            e.printStackTrace(System.err);
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int code, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType + "; charset=UTF-8");
+        exchange.sendResponseHeaders(code, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+        exchange.close();
+    }
+}
@@ -3,12 +3,50 @@ package ru.ifmo.rain.vorobev.i18n;
 
 import org.junit.*;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.BufferedWriter;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.reflect.InvocationTargetException;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Map;
-import java.util.Random;
+import java.text.BreakIterator;
+import java.text.Collator;
+import java.text.DateFormat;
+import java.text.Format;
+import java.text.NumberFormat;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 public class Tester {
 
@@ -235,6 +273,995 @@ public class Tester {
         }
     }
 
+    @Test
+    public void checkPrescan() throws IOException {
+        Locale[] locales = {new Locale("en", "US"), new Locale("ru", "RU"), new Locale("es", "ES"),
+                new Locale("de", "DE"), new Locale("ar", "PS"), new Locale("ar", "EG"), new Locale("zh", "CN")};
+        for (Locale locale : locales) {
+            String localeName = locale.toString();
+            String text = generatePrescanText(locale);
+            List<FrequencyTable> withPrescan = createTables();
+            List<FrequencyTable> withoutPrescan = createTables();
+            new Tokenizer(locale, true).tokenize(text, withPrescan);
+            new Tokenizer(locale, false).tokenize(text, withoutPrescan);
+            for (int i = 0; i < ids.size(); i++) {
+                List<ObjectCount> expected = withoutPrescan.get(i).sorted();
+                List<ObjectCount> actual = withPrescan.get(i).sorted();
+                Assert.assertEquals(localeName, expected.size(), actual.size());
+                for (int j = 0; j < expected.size(); j++) {
+                    Assert.assertEquals(localeName, expected.get(j).key, actual.get(j).key);
+                    Assert.assertEquals(localeName, expected.get(j).count, actual.get(j).count);
+                }
+            }
+        }
+
+        // objects which start inside of letter runs are found as by the original parsing
+        String glued = "Paid abc12,5 and xMay 25, 2020 then 7pm. OnxMonday, June 1, 2020 paidUSD5 or x$7.\n"
+                + "Счётна5 мая 2020 г. иабвпонедельник, 1 июня 2020 г.\n";
+        makeFile(glued);
+        TextAnalyzer analyzer = new TextAnalyzer();
+        for (Locale locale : locales) {
+            TextStatistics expected = DifferentialHarness.analyzeReference(Paths.get(tmpTestFile), locale);
+            Assert.assertEquals(locale.toString(), List.of(),
+                    DifferentialHarness.mismatches(expected, analyzer.analyze(glued, locale)));
+        }
+        BlockStats[] blocks = analyzer.analyze("Paid abc12,5 and xMay 25, 2020 then 7pm.", new Locale("en", "US"))
+                .getBlockStats();
+        Assert.assertTrue(blocks[5].isEqualTo(new BlockStats(1, 1, "May 25, 2020", "May 25, 2020", 12,
+                "May 25, 2020", "May 25, 2020")));
+        Assert.assertTrue(blocks[3].isEqualTo(new BlockStats(2, 2, "7", "125", 4, "7", "125")));
+    }
+
+    @Test
+    public void checkFrequencyTable() throws IOException {
+        FrequencyTable first = new FrequencyTable();
+        FrequencyTable second = new FrequencyTable();
+        Map<String, Integer> expected = new TreeMap<>();
+        for (int i = 0; i < 10000; i++) {
+            String key = Integer.toString(random.nextInt(3000), 36);
+            (i % 2 == 0 ? first : second).add(key, " " + key + i + " ");
+            expected.merge(key, 1, Integer::sum);
+        }
+        ObjectCount firstCount = first.get(first.sorted().get(0).key);
+        Map<String, Long> secondCounts = new HashMap<>();
+        second.forEach(curCount -> secondCounts.put(curCount.key, curCount.count));
+        FrequencyTable third = new FrequencyTable();
+        third.merge(second);
+        first.merge(second);
+        Assert.assertEquals(expected.size(), first.size());
+        Assert.assertSame(firstCount, first.get(firstCount.key));
+        // counts of the merged table are not shared with the tables it's merged into, nor between them
+        for (String key : secondCounts.keySet()) {
+            third.add(key, key);
+        }
+        third.merge(second);
+        second.forEach(curCount -> Assert.assertEquals((long) secondCounts.get(curCount.key), curCount.count));
+        Assert.assertEquals(firstCount.key, firstCount.object.substring(0, firstCount.key.length()));
+        List<ObjectCount> sorted = first.sorted();
+        int i = 0;
+        for (Map.Entry<String, Integer> entry : expected.entrySet()) {
+            Assert.assertEquals(entry.getKey(), sorted.get(i).key);
+            Assert.assertEquals((int) entry.getValue(), sorted.get(i).count);
+            i++;
+        }
+        Assert.assertNull(first.get("not a key"));
+
+        // counts of merged tables go beyond int and are saved as they are
+        FrequencyTable huge = new FrequencyTable();
+        huge.add("word", "Word").count = Integer.MAX_VALUE;
+        FrequencyTable merged = new FrequencyTable();
+        merged.merge(huge);
+        merged.merge(huge);
+        merged.add("word", "Word");
+        Assert.assertEquals(2L * Integer.MAX_VALUE + 1, merged.get("word").count);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            Snapshot.writeTables(out, List.of(merged));
+        }
+        Assert.assertEquals(2L * Integer.MAX_VALUE + 1,
+                Snapshot.readTables(ByteBuffer.wrap(bytes.toByteArray())).get(0).get("word").count);
+    }
+
+    @Test
+    public void checkTextArena() {
+        String[] lines = {"Hello", "HELLO ", " hello", "ΟΔΟΣ", "οδος", "İstanbul", "ISTANBUL", "𐐀", "\t", ""};
+        for (Locale locale : new Locale[]{Locale.US, new Locale("tr", "TR"), new Locale("el")}) {
+            FrequencyTable plain = new FrequencyTable();
+            FrequencyTable stored = new FrequencyTable();
+            FrequencyTable storedLater = new FrequencyTable();
+            stored.storeIn(new TextArena());
+            for (int i = 0; i < 3000; i++) {
+                String line = lines[i % lines.length] + (i % 7 == 0 ? "" : " " + random.nextInt(1000));
+                plain.add(new StringBuilder(line), locale);
+                stored.add(new StringBuilder(line), locale);
+                storedLater.add(line.toLowerCase(locale), line);
+            }
+            storedLater.storeIn(new TextArena());
+            for (FrequencyTable table : List.of(stored, storedLater)) {
+                Assert.assertEquals(plain.size(), table.size());
+                List<ObjectCount> expected = plain.sorted();
+                List<ObjectCount> actual = table.sorted();
+                for (int i = 0; i < expected.size(); i++) {
+                    Assert.assertTrue(actual.get(i) instanceof TextArena.StoredCount);
+                    Assert.assertEquals(expected.get(i).key, actual.get(i).getKey());
+                    Assert.assertEquals(expected.get(i).object, actual.get(i).getObject());
+                    Assert.assertEquals(expected.get(i).object.length(), actual.get(i).getObjectLength());
+                    Assert.assertEquals(expected.get(i).count, actual.get(i).count);
+                    Assert.assertSame(actual.get(i), table.get(expected.get(i).key));
+                }
+            }
+            FrequencyTable merged = new FrequencyTable();
+            merged.storeIn(new TextArena());
+            merged.merge(plain);
+            merged.merge(stored);
+            for (ObjectCount curCount : plain.sorted()) {
+                Assert.assertEquals(2 * curCount.count, merged.get(curCount.key).count);
+            }
+        }
+
+        TextArena arena = new TextArena();
+        String longText = "Long sentence. ".repeat(TextArena.MAX_PAGE_SIZE / 10);
+        TextArena.StoredCount first = arena.store("First", "first", "first".hashCode());
+        TextArena.StoredCount longCount = arena.store(longText, null, longText.toLowerCase().hashCode());
+        arena.clear();
+        TextArena.StoredCount last = arena.store("Last", "last", "last".hashCode());
+        Assert.assertEquals("First", first.getObject());
+        Assert.assertEquals(longText.trim(), longCount.getObject());
+        Assert.assertEquals(longText.toLowerCase(), longCount.getKey());
+        Assert.assertEquals("Last", last.getObject());
+    }
+
+    @Test
+    public void checkAnalyzer() throws Exception {
+        TextAnalyzer analyzer = new TextAnalyzer();
+        Locale[] locales = {new Locale("en", "US"), new Locale("ru", "RU"), new Locale("ar", "PS"), new Locale("zh")};
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<TextStatistics>> results = new ArrayList<>();
+            String[] texts = new String[locales.length];
+            for (int i = 0; i < locales.length; i++) {
+                texts[i] = generatePrescanText(locales[i]);
+                String text = texts[i];
+                Locale locale = locales[i];
+                results.add(executor.submit(() -> analyzer.analyze(text, locale)));
+            }
+            Locale defaultLocale = Locale.getDefault();
+            for (int i = 0; i < locales.length; i++) {
+                makeFile(texts[i]);
+                TextStatistics expected = new TextStatistics(locales[i].toString(), tmpTestFile);
+                TextStatistics actual = results.get(i).get();
+                for (Map.Entry<String, Integer> entry : ids.entrySet()) {
+                    Assert.assertTrue(locales[i] + " " + entry.getKey(), actual
+                            .getStatistic(actual.objectsCount.get(entry.getValue()), entry.getKey())
+                            .isEqualTo(expected.getStatistic(expected.objectsCount.get(entry.getValue()), entry.getKey())));
+                }
+                actual.writeStatistics(new Locale("ru", "RU"), Writer.nullWriter());
+            }
+            Assert.assertEquals(defaultLocale, Locale.getDefault());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void checkBatch() throws Exception {
+        Path inputDir = Files.createTempDirectory("batchInput");
+        Path outputDir = Files.createTempDirectory("batchOutput");
+        String[] texts = {"Hi. Hi, hi, hi.", "Give me $10 or 10 € pls.\nThen $111 and $111, go go go.", "A 1. 456. I want 1, 2 or 3."};
+        TextAnalyzer analyzer = new TextAnalyzer();
+        int[] expectedCounts = new int[ids.size()];
+        for (int i = 0; i < texts.length; i++) {
+            Files.writeString(inputDir.resolve(i + ".txt"), texts[i]);
+            TextStatistics statistics = analyzer.analyze(texts[i], Locale.US);
+            for (int j = 0; j < ids.size(); j++) {
+                for (ObjectCount curCount : statistics.objectsCount.get(j).sorted()) {
+                    expectedCounts[j] += curCount.count;
+                }
+            }
+        }
+        Files.writeString(inputDir.resolve("skipped.md"), "Not matched.");
+
+        // one thread analyzes only two files ahead of the merged ones
+        for (int threads : new int[]{1, 2}) {
+            TextStatistics corpus = new BatchStatistics(analyzer, Locale.US, "en", threads)
+                    .run(inputDir.resolve("*.txt").toString(), outputDir);
+            for (int i = 0; i < texts.length; i++) {
+                Assert.assertTrue(Files.exists(outputDir.resolve(i + ".txt.html")));
+            }
+            Assert.assertFalse(Files.exists(outputDir.resolve("skipped.md.html")));
+            Assert.assertTrue(Files.exists(outputDir.resolve(BatchStatistics.CORPUS_REPORT)));
+            for (Map.Entry<String, Integer> entry : ids.entrySet()) {
+                Assert.assertEquals(entry.getKey(), expectedCounts[entry.getValue()],
+                        corpus.getStatistic(corpus.objectsCount.get(entry.getValue()), entry.getKey()).count);
+            }
+        }
+
+        // the report of an input named as the corpus would overwrite the corpus report
+        Files.writeString(inputDir.resolve("corpus"), texts[0]);
+        Path corpusOutputDir = Files.createTempDirectory("batchOutput");
+        try {
+            new BatchStatistics(analyzer, Locale.US, "en", 2).run(inputDir.toString(), corpusOutputDir);
+            Assert.fail("Input named as the corpus is not rejected");
+        } catch (IOException e) {
+            Assert.assertFalse(Files.exists(corpusOutputDir.resolve(BatchStatistics.CORPUS_REPORT)));
+        }
+    }
+
+    @Test
+    public void checkLineReader() throws Exception {
+        String text = "Первая строка\r\nВторая\rТретья\n\n\r\nПоследняя без перевода";
+        Path file = Files.createTempFile("lineReader", ".txt");
+        Files.write(file, text.getBytes(Charset.forName("windows-1251")));
+        List<String> expected = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new StringReader(text))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                expected.add(line);
+            }
+        }
+        List<String> actual = new ArrayList<>();
+        try (LineReader reader = new LineReader(file, Charset.forName("windows-1251"))) {
+            LineReader.Line line;
+            while ((line = reader.readLine()) != null) {
+                actual.add(line.toString());
+            }
+        }
+        Assert.assertEquals(expected, actual);
+
+        String longLine = "x".repeat(10) + " " + "y".repeat(14);
+        List<String> parts = new ArrayList<>();
+        LineReader reader = new LineReader(longLine + "\n" + "z".repeat(10) + "\nend", 10);
+        for (LineReader.Line line = reader.readLine(); line != null; line = reader.readLine()) {
+            parts.add(line + (line.isContinued() ? "+" : ""));
+        }
+        Assert.assertEquals(List.of("x".repeat(10) + "+", " " + "y".repeat(9) + "+", "y".repeat(5),
+                "z".repeat(10), "end"), parts);
+
+        String[] lines = {"Hello", "HELLO", "ΟΔΟΣ", "οδος", "İstanbul", "ISTANBUL", "istanbul", "\uD801\uDC00"};
+        for (Locale locale : new Locale[]{Locale.US, new Locale("tr", "TR"), new Locale("el")}) {
+            FrequencyTable byString = new FrequencyTable();
+            FrequencyTable bySequence = new FrequencyTable();
+            for (String line : lines) {
+                byString.add(line.toLowerCase(locale), line);
+                bySequence.add(new StringBuilder(line), locale);
+            }
+            Assert.assertEquals(byString.size(), bySequence.size());
+            for (ObjectCount curCount : byString.sorted()) {
+                Assert.assertEquals(curCount.count, bySequence.get(curCount.key).count);
+                Assert.assertEquals(curCount.object, bySequence.get(curCount.key).object);
+            }
+        }
+    }
+
+    @Test
+    public void checkChunkReader() throws Exception {
+        StringWriter corpus = new StringWriter();
+        new CorpusGenerator(Locale.US, CorpusGenerator.Mix.DEFAULT).write(corpus, 1 << 16, new Random(1));
+        StringBuilder words = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            words.append(i % 10 == 9 ? "word\n" : "word ");
+        }
+        for (String text : List.of(corpus.toString(), words.toString())) {
+            StringBuilder joined = new StringBuilder();
+            try (BufferedReader reader = new BufferedReader(new StringReader(text))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    joined.append(line).append(' ');
+                }
+            }
+            List<String> expected = getSentences(joined.toString());
+            List<String> actual = new ArrayList<>();
+            StringBuilder chunks = new StringBuilder();
+            Tokenizer tokenizer = new Tokenizer(Locale.US);
+            try (ChunkReader reader = new ChunkReader(new LineReader(text), Locale.US, line -> {},
+                    (chunk, boundary) -> !tokenizer.crossesBoundary(chunk, boundary), 256)) {
+                String chunk;
+                while ((chunk = reader.nextChunk()) != null) {
+                    chunks.append(chunk);
+                    actual.addAll(getSentences(chunk));
+                }
+            }
+            Assert.assertEquals(joined.toString(), chunks.toString());
+            Assert.assertEquals(expected, actual);
+        }
+
+        // a line without terminators is read by parts and a sentence longer than the limit is split
+        String line = words.toString().replace('\n', ' ').replace("word", "word, 12,5");
+        List<Integer> lengths = new ArrayList<>();
+        StringBuilder chunks = new StringBuilder();
+        Tokenizer tokenizer = new Tokenizer(Locale.US);
+        try (ChunkReader reader = new ChunkReader(new LineReader(line, 1000), Locale.US,
+                part -> lengths.add(part.length()),
+                (chunk, boundary) -> !tokenizer.crossesBoundary(chunk, boundary), 256, 4096)) {
+            String chunk;
+            while ((chunk = reader.nextChunk()) != null) {
+                Assert.assertTrue(chunk.length() <= 4096 + 1000);
+                Assert.assertTrue(chunk.endsWith(" "));
+                chunks.append(chunk);
+            }
+        }
+        Assert.assertEquals(line + " ", chunks.toString());
+        Assert.assertTrue(lengths.size() > 1);
+        for (int length : lengths) {
+            Assert.assertTrue(length > 500 && length <= 1000 || length == lengths.get(lengths.size() - 1));
+        }
+    }
+
+    @Test
+    public void checkIncremental() throws Exception {
+        TextAnalyzer analyzer = new TextAnalyzer();
+        Locale locale = new Locale("en", "US");
+        Path file = Files.createTempFile("incremental", ".txt");
+        Path checkpoint = Files.createTempFile("incremental", ".checkpoint");
+        Files.delete(checkpoint);
+        String[] parts = {"First line. It costs $10", " on May 5, 2021.\nSecond line, with 2", "0 words. Third\r\n",
+                "line. Last"};
+        String text = "";
+        for (String part : parts) {
+            text += part;
+            Files.writeString(file, text);
+            assertSameStatistics(analyzer.analyze(text, locale), analyzer.analyze(file, locale, checkpoint));
+        }
+        Files.writeString(file, "Rewritten" + text.substring(5));
+        assertSameStatistics(analyzer.analyze("Rewritten" + text.substring(5), locale),
+                analyzer.analyze(file, locale, checkpoint));
+
+        // lone '\r' ends lines, '\r' at the end may be followed by '\n', UTF-16 is resumed at a line too
+        String[] lines = {"First line,\r", "second line.\r", "\n", "Third, 2", "0\r", "\nlast"};
+        Charset[] charsets = {StandardCharsets.UTF_8, StandardCharsets.UTF_16LE, StandardCharsets.UTF_16BE};
+        for (Charset charset : charsets) {
+            TextAnalyzer charsetAnalyzer = new TextAnalyzer(ForkJoinPool.commonPool(), charset);
+            Files.delete(checkpoint);
+            int unit = "\n".getBytes(charset).length;
+            String[] lineEnds = {"", "First line,\r", "First line,\rsecond line.\r\n",
+                    "First line,\rsecond line.\r\n"};
+            text = "";
+            for (int i = 0; i < lines.length; i++) {
+                text += lines[i];
+                Files.write(file, text.getBytes(charset));
+                assertSameStatistics(analyzer.analyze(text, locale), charsetAnalyzer.analyze(file, locale, checkpoint));
+                try (FileChannel channel = FileChannel.open(file)) {
+                    long lineEnd = new Checkpoint(locale, charset).lastLineEnd(channel, 0, channel.size());
+                    String expected = i < lineEnds.length ? lineEnds[i]
+                            : text.substring(0, text.lastIndexOf('\n') + 1);
+                    Assert.assertEquals(charset.name(), expected.length() * unit, lineEnd);
+                }
+            }
+        }
+        // with a byte order mark a part can't be decoded alone
+        try (FileChannel channel = FileChannel.open(file)) {
+            Assert.assertEquals(0, new Checkpoint(locale, StandardCharsets.UTF_16)
+                    .lastLineEnd(channel, 0, channel.size()));
+        }
+    }
+
+    @Test
+    public void checkSnapshot() throws Exception {
+        TextAnalyzer analyzer = new TextAnalyzer();
+        Locale locale = new Locale("ru", "RU");
+        String[] texts = {generatePrescanText(locale), "Привет. Привет, ПРИВЕТ! 12 345,5 и 25 мая 2020 г."};
+        List<Path> snapshots = new ArrayList<>();
+        TextStatistics expected = analyzer.analyze(texts[0], locale);
+        for (String text : texts) {
+            Path snapshot = Files.createTempFile("statistics", ".snapshot");
+            TextStatistics statistics = analyzer.analyze(text, locale);
+            Snapshot.write(statistics, snapshot);
+            snapshots.add(snapshot);
+            assertSameStatistics(statistics, Snapshot.read(analyzer, snapshot));
+            for (Locale outputLocale : new Locale[]{new Locale("en"), new Locale("ru", "RU")}) {
+                StringWriter expectedReport = new StringWriter();
+                StringWriter actualReport = new StringWriter();
+                statistics.writeStatistics(outputLocale, expectedReport);
+                Snapshot.readSummary(analyzer, snapshot).writeStatistics(outputLocale, actualReport);
+                Assert.assertEquals(expectedReport.toString(), actualReport.toString());
+            }
+        }
+        expected.merge(analyzer.analyze(texts[1], locale));
+        assertSameStatistics(expected, Snapshot.merge(analyzer, snapshots));
+
+        // texts of sentences and lines are read to arenas, entries repeated in tables are written once
+        ArrayList<FrequencyTable> tables = Snapshot.read(analyzer, snapshots.get(0)).objectsCount;
+        Assert.assertTrue(tables.get(0).isStored() && tables.get(1).isStored());
+        FrequencyTable sentences = tables.get(0);
+        ByteArrayOutputStream once = new ByteArrayOutputStream();
+        Snapshot.writeTables(new DataOutputStream(once), List.of(sentences));
+        ByteArrayOutputStream twice = new ByteArrayOutputStream();
+        Snapshot.writeTables(new DataOutputStream(twice), List.of(sentences, sentences));
+        Assert.assertTrue(twice.size() < 2 * once.size() - sentences.size() * 10);
+        ArrayList<FrequencyTable> readTwice = Snapshot.readTables(ByteBuffer.wrap(twice.toByteArray()));
+        for (FrequencyTable table : readTwice) {
+            Assert.assertEquals(sentences.size(), table.size());
+            sentences.forEach(curCount -> {
+                ObjectCount readCount = table.get(curCount.getKey());
+                Assert.assertEquals(curCount.getObject(), readCount.getObject());
+                Assert.assertEquals(curCount.count, readCount.count);
+            });
+        }
+    }
+
+    @Test
+    public void checkApproximate() throws Exception {
+        TextAnalyzer analyzer = new TextAnalyzer();
+        Locale locale = new Locale("en", "US");
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            text.append("Sentence ").append(random.nextInt(15000)).append(i % 7 == 0 ? " again.\n" : ". Again. ");
+        }
+        makeFile(text.toString());
+        TextStatistics exact = analyzer.analyze(text.toString(), locale);
+        TextStatistics approximate = analyzer.analyzeApproximately(Paths.get(tmpTestFile), locale, 12, 10);
+        for (Map.Entry<String, Integer> entry : ids.entrySet()) {
+            BlockStats expected = exact.getBlockStats()[entry.getValue()];
+            BlockStats actual = approximate.getBlockStats()[entry.getValue()];
+            expected.unique = actual.unique;
+            Assert.assertTrue(entry.getKey(), expected.isEqualTo(actual));
+            Assert.assertEquals(entry.getKey(), exact.objectsCount.get(entry.getValue()).size(), actual.unique,
+                    4 * 1.04 / Math.sqrt(1 << 12) * actual.unique + 1);
+        }
+        Sketch sentences = new Sketch("sentences", 12, 10);
+        sentences.add(exact.objectsCount.get(0));
+        Sketch.Counter mostFrequent = sentences.getFrequent().get(0);
+        Assert.assertEquals("Again.", mostFrequent.object);
+        long count = exact.objectsCount.get(0).get(mostFrequent.key).count;
+        Assert.assertTrue(mostFrequent.count <= count && count <= mostFrequent.count + sentences.getFrequencyError());
+
+        FrequencyTable huge = new FrequencyTable();
+        huge.add("line", " Line ").count = Integer.MAX_VALUE;
+        Sketch lines = new Sketch("lines", 12, 10);
+        lines.add(huge);
+        lines.add(huge);
+        Assert.assertEquals(2L * Integer.MAX_VALUE, lines.getBlockStats().count);
+        Assert.assertEquals(8L * Integer.MAX_VALUE, lines.getBlockStats().sumLength);
+
+        Path snapshot = Files.createTempFile("approximate", ".snapshot");
+        try {
+            Snapshot.write(approximate, snapshot);
+            Snapshot.merge(analyzer, List.of(snapshot));
+            Assert.fail();
+        } catch (IOException e) {
+            // approximate statistics have no tables to merge
+        } finally {
+            Files.delete(snapshot);
+        }
+    }
+
+    @Test
+    public void checkTopAndLengths() {
+        TextAnalyzer analyzer = new TextAnalyzer();
+        Locale locale = new Locale("en", "US");
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 3000; i++) {
+            text.append("Word").append(random.nextInt(40)).append(" costs $").append(random.nextInt(20))
+                    .append(" and ").append(random.nextInt(30)).append(i % 5 == 0 ? ".\n" : ". ");
+        }
+        TextStatistics statistics = analyzer.analyze(text.toString(), locale);
+        for (Map.Entry<String, Integer> entry : ids.entrySet()) {
+            FrequencyTable table = statistics.objectsCount.get(entry.getValue());
+            BlockStats block = statistics.getStatistic(table, entry.getKey());
+            long[] lengths = new long[BlockStats.HISTOGRAM_BUCKETS];
+            List<ObjectCount> counts = new ArrayList<>();
+            for (ObjectCount curCount : table.sorted()) {
+                lengths[BlockStats.lengthBucket(curCount.getObjectLength())] += curCount.count;
+                counts.add(curCount);
+            }
+            Assert.assertArrayEquals(entry.getKey(), lengths, block.lengthHistogram);
+            if (!TextStatistics.TOP_STATS.contains(entry.getKey())) {
+                continue;
+            }
+            counts.sort(Comparator.comparingLong((ObjectCount curCount) -> -curCount.count)
+                    .thenComparing(ObjectCount::compareKeyTo));
+            int topSize = Math.min(BlockStats.TOP_SIZE, counts.size());
+            Assert.assertEquals(entry.getKey(), topSize, block.topObjects.length);
+            for (int i = 0; i < topSize; i++) {
+                Assert.assertEquals(entry.getKey(), counts.get(i).getObject(), block.topObjects[i]);
+                Assert.assertEquals(entry.getKey(), counts.get(i).count, block.topCounts[i]);
+            }
+        }
+    }
+
+    @Test
+    public void checkMetrics() throws Exception {
+        Locale locale = new Locale("en", "US");
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            text.append("Line ").append(i).append(" costs $").append(random.nextInt(100)).append(". Next one.\n");
+        }
+        makeFile(text.toString());
+        Metrics metrics = new Metrics();
+        TextAnalyzer analyzer = new TextAnalyzer(ForkJoinPool.commonPool(), StandardCharsets.UTF_8, metrics);
+        TextStatistics statistics = analyzer.analyze(Paths.get(tmpTestFile), locale);
+        assertSameStatistics(new TextAnalyzer().analyze(text.toString(), locale), statistics);
+        Assert.assertEquals(2000, metrics.getTokens(locale, Metrics.Stage.READ));
+        Assert.assertEquals(4000, metrics.getTokens(locale, Metrics.Stage.SENTENCES));
+        Assert.assertTrue(metrics.getTokens(locale, Metrics.Stage.PARSE) >= 4000);
+
+        statistics.performanceSection = true;
+        StringWriter report = new StringWriter();
+        statistics.writeStatistics(new Locale("en"), report);
+        Assert.assertTrue(report.toString().contains("<h4>Performance:</h4>"));
+        Assert.assertEquals(TextStatistics.STATS_COUNT, metrics.getTokens(new Locale("en"), Metrics.Stage.RENDER));
+        Path json = Files.createTempFile("metrics", ".json");
+        metrics.writeJson(json);
+        String dump = new String(Files.readAllBytes(json), StandardCharsets.UTF_8);
+        Assert.assertTrue(dump.contains("{\"locale\": \"en-US\", \"stage\": \"read\""));
+        Assert.assertTrue(dump.contains("{\"locale\": \"en\", \"stage\": \"render\""));
+    }
+
+    @Test
+    public void checkServer() throws Exception {
+        TextAnalyzer analyzer = new TextAnalyzer();
+        StatisticsServer server = new StatisticsServer(analyzer, 0, 1, 1, 1000);
+        server.start();
+        try {
+            String text = "Привет, мир! Это стоит 12,5 ₽ 25 мая 2020 г.\n";
+            StringWriter expected = new StringWriter();
+            analyzer.analyze(text, new Locale("ru", "RU")).writeStatistics(new Locale("en"), expected);
+            String query = StatisticsServer.ANALYZE_PATH + "?input=ru_RU&output=en";
+            Assert.assertEquals(expected.toString(), post(server, query, text.getBytes(StandardCharsets.UTF_8), 200));
+            // windows-1251 has no ruble sign
+            text = text.replace("₽", "руб.");
+            expected = new StringWriter();
+            analyzer.analyze(text, new Locale("ru", "RU")).writeJson(expected);
+            Assert.assertEquals(expected.toString(), post(server, query + "&format=json",
+                    text.getBytes(Charset.forName("windows-1251")), 200, "text/plain; charset=windows-1251"));
+            post(server, query, new byte[1001], 413);
+            post(server, query + "&format=xml", new byte[0], 400);
+            post(server, StatisticsServer.ANALYZE_PATH, new byte[0], 400);
+
+            // connections with unfinished headers take all 4 threads and 3 places in the queue
+            List<Socket> stalled = new ArrayList<>();
+            try {
+                for (int i = 0; i < 7; i++) {
+                    Socket socket = new Socket("localhost", server.getPort());
+                    socket.getOutputStream().write("POST /analyze HTTP/1.1\r\n".getBytes(StandardCharsets.US_ASCII));
+                    socket.getOutputStream().flush();
+                    stalled.add(socket);
+                    // so every connection is taken by a thread before the next one is queued
+                    Thread.sleep(100);
+                }
+                post(server, query, text.getBytes(StandardCharsets.UTF_8), 503);
+            } finally {
+                for (Socket socket : stalled) {
+                    socket.close();
+                }
+            }
+            Thread.sleep(200);
+            post(server, query, text.getBytes(StandardCharsets.UTF_8), 200);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private static String post(StatisticsServer server, String query, byte[] body, int code) throws IOException {
+        return post(server, query, body, code, "text/plain");
+    }
+
+    private static String post(StatisticsServer server, String query, byte[] body, int code, String contentType)
+            throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + server.getPort() + query)
+                .openConnection();
+        connection.setRequestMethod("POST");
+        connection.setReadTimeout(10000);
+        connection.setRequestProperty("Content-Type", contentType);
+        connection.setDoOutput(true);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(body);
+        }
+        Assert.assertEquals(code, connection.getResponseCode());
+        try (InputStream in = code == 200 ? connection.getInputStream() : connection.getErrorStream()) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    public void checkReportFormats() throws Exception {
+        TextAnalyzer analyzer = new TextAnalyzer();
+        TextStatistics statistics = analyzer.analyze("He said \"hi, there\". It costs $1,234.50 on May 5, 2020.\n"
+                + "Hi, there! 12 and 12.\n", new Locale("en", "US"));
+        Path report = Files.createTempDirectory("reports").resolve("report.html");
+        statistics.createStatistics("en", report.toString(), false, Arrays.asList(ReportFormat.STANDARD));
+        for (ReportFormat format : ReportFormat.STANDARD) {
+            StringWriter expected = new StringWriter();
+            statistics.writeReports(new Locale("en"), List.of(format), List.of(expected));
+            Path file = Paths.get(TextStatistics.getReportFile(report.toString(), format));
+            Assert.assertEquals(format.getName(), expected.toString(),
+                    new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+        }
+
+        StringWriter json = new StringWriter();
+        statistics.writeJson(json);
+        Assert.assertTrue(json.toString().contains("\"sentences\": {\"count\": 4, \"unique\": 4"));
+        Assert.assertTrue(json.toString().contains("{\"object\": \"He said \\\"hi, there\\\".\", \"count\": 1}"));
+        Assert.assertTrue(json.toString().contains("\"numbers\": {\"count\": 2, \"unique\": 1"));
+
+        StringWriter csv = new StringWriter();
+        statistics.writeReports(new Locale("en"), List.of(ReportFormat.CSV), List.of(csv));
+        String[] rows = csv.toString().split("\r\n");
+        Assert.assertEquals(TextStatistics.STATS_COUNT + 1, rows.length);
+        int columns = splitCsv(rows[0]).size();
+        for (int i = 1; i < rows.length; i++) {
+            List<String> fields = splitCsv(rows[i]);
+            Assert.assertEquals(rows[i], columns, fields.size());
+            Assert.assertEquals(TextStatistics.STATS[i - 1], fields.get(0));
+        }
+        Assert.assertTrue(splitCsv(rows[1]).contains("He said \"hi, there\"."));
+    }
+
+    @Test
+    public void checkCollationOrder() throws Exception {
+        TextAnalyzer analyzer = new TextAnalyzer();
+        BlockStats russian = analyzer.analyze("Жук и ёж. Яма, ель.\n", new Locale("ru", "RU")).getBlockStats()[2];
+        Assert.assertEquals("ёж", russian.minObject);
+        Assert.assertEquals("Яма", russian.maxObject);
+        BlockStats latin = analyzer.analyze("Zebra ate an éclair.\n", new Locale("fr", "FR")).getBlockStats()[2];
+        Assert.assertEquals("an", latin.minObject);
+        Assert.assertEquals("Zebra", latin.maxObject);
+
+        Locale[] locales = {new Locale("ru", "RU"), new Locale("ar", "PS"), new Locale("zh")};
+        for (Locale locale : locales) {
+            String text = generatePrescanText(locale);
+            makeFile(text);
+            TextStatistics statistics = analyzer.analyze(text, locale);
+            TextStatistics approximate = analyzer.analyzeApproximately(Paths.get(tmpTestFile), locale, 12, 10);
+            Collator collator = Collator.getInstance(locale);
+            for (int i = 0; i < 3; i++) {
+                FrequencyTable table = statistics.objectsCount.get(i);
+                List<ObjectCount> counts = new ArrayList<>(table.sorted());
+                counts.sort((a, b) -> collator.compare(a.getKey(), b.getKey()));
+                BlockStats block = statistics.getBlockStats()[i];
+                Assert.assertEquals(locale + " " + i, counts.get(0).getObject(), block.minObject);
+                Assert.assertEquals(locale + " " + i, counts.get(counts.size() - 1).getObject(), block.maxObject);
+                Assert.assertEquals(block.minObject, approximate.getBlockStats()[i].minObject);
+                Assert.assertEquals(block.maxObject, approximate.getBlockStats()[i].maxObject);
+
+                FrequencyTable copy = new FrequencyTable();
+                copy.merge(table);
+                Assert.assertTrue(copy.getMin() == null && !copy.isOrdered());
+                copy.orderBy(collator);
+                Assert.assertEquals(table.getMin().getObject(), copy.getMin().getObject());
+                Assert.assertEquals(table.getMax().getObject(), copy.getMax().getObject());
+            }
+        }
+    }
+
+    @Test
+    public void checkExtractors() throws Exception {
+        Assert.assertEquals(List.of("sentences", "lines", "words", "numbers", "currencies", "dates"),
+                List.of(TextStatistics.STATS));
+        String text = "Growth was 15% in 2020, then 7.5% and 15%. Not 3 %.\n";
+        makeFile(text);
+        Locale locale = new Locale("en", "US");
+        TextStatistics english = new TextAnalyzer().analyze(text, locale);
+        Assert.assertTrue(english.getBlockStats()[3].isEqualTo(new BlockStats(5, 4, "3", "2,020", 13, "3", "2,020")));
+        Assert.assertEquals(List.of(), DifferentialHarness.mismatches(
+                DifferentialHarness.analyzeReference(Paths.get(tmpTestFile), locale), english));
+        runWithProvider(PercentExtractor.class, "checkPercentages");
+    }
+
+    /**
+     * Checks percentages in the classes of {@link #runWithProvider}, where {@link PercentExtractor} is registered.
+     */
+    public void checkPercentages() throws Exception {
+        int percentages = List.of(TextStatistics.STATS).indexOf("percentages");
+        Assert.assertTrue(percentages >= 6);
+        TextAnalyzer analyzer = new TextAnalyzer();
+        TextStatistics english = analyzer.analyze("Growth was 15% in 2020, then 7.5% and 15%. Not 3 %.\n",
+                new Locale("en", "US"));
+        Assert.assertTrue(english.getBlockStats()[percentages].isEqualTo(
+                new BlockStats(3, 2, "7.5%", "15%", 10, "15%", "7.5%")));
+        Assert.assertEquals(List.of("15%", "7.5%"), List.of(english.getBlockStats()[percentages].topObjects));
+        Assert.assertTrue(english.getBlockStats()[3].isEqualTo(new BlockStats(2, 2, "3", "2,020", 6, "3", "2,020")));
+        TextStatistics russian = analyzer.analyze("Рост 150\u00A0% и 2,5\u00A0%.", new Locale("ru", "RU"));
+        Assert.assertTrue(russian.getBlockStats()[percentages].isEqualTo(
+                new BlockStats(2, 2, "2,5\u00A0%", "150\u00A0%", 10, "150\u00A0%", "150\u00A0%")));
+
+        StringWriter report = new StringWriter();
+        english.writeStatistics(new Locale("en"), report);
+        Assert.assertTrue(report.toString().contains("<p>Max percentage:15%</p>"));
+        Path snapshot = Files.createTempFile("statistics", ".snapshot");
+        Snapshot.write(english, snapshot);
+        assertSameStatistics(english, Snapshot.read(analyzer, snapshot));
+        Files.delete(snapshot);
+    }
+
+    /**
+     * Runs the method of a new tester with new copies of the classes of the class path, for which
+     * the extractor is registered as a provider, so the blocks of these classes are left as they are.
+     */
+    private static void runWithProvider(Class<? extends Extractor> extractor, String method) throws Exception {
+        Path services = Files.createTempDirectory("services");
+        Path registration = services.resolve("META-INF/services/" + Extractor.class.getName());
+        Files.createDirectories(registration.getParent());
+        Files.writeString(registration, extractor.getName());
+        List<URL> urls = new ArrayList<>(List.of(services.toUri().toURL()));
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            urls.add(Paths.get(entry).toUri().toURL());
+        }
+        Thread thread = Thread.currentThread();
+        ClassLoader context = thread.getContextClassLoader();
+        try (URLClassLoader loader = new URLClassLoader(urls.toArray(new URL[0]), ClassLoader.getPlatformClassLoader())) {
+            thread.setContextClassLoader(loader);
+            Class<?> tester = loader.loadClass(Tester.class.getName());
+            tester.getMethod(method).invoke(tester.getConstructor().newInstance());
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw (Exception) e.getCause();
+        } finally {
+            thread.setContextClassLoader(context);
+            Files.delete(registration);
+            Files.delete(registration.getParent());
+            Files.delete(registration.getParent().getParent());
+            Files.delete(services);
+        }
+    }
+
+    @Test
+    public void checkLocaleDetection() throws Exception {
+        TextAnalyzer analyzer = new TextAnalyzer();
+        Map<String, String> texts = Map.of(
+                "en", "We will meet again next year, when the new bridge over the river is finally finished.",
+                "es", "Nos veremos otra vez el año que viene, cuando por fin terminen el puente nuevo sobre el río.",
+                "de", "Wir sehen uns im nächsten Jahr wieder, wenn die neue Brücke über den Fluss endlich fertig ist.",
+                "pt", "Vamos nos encontrar de novo no ano que vem, quando a ponte nova sobre o rio ficar pronta.",
+                "ru", "Мы снова встретимся в следующем году, когда наконец достроят новый мост через реку.",
+                "uk", "Ми знову зустрінемося наступного року, коли нарешті добудують новий міст через річку.",
+                "ar", "سنلتقي مرة أخرى في العام المقبل عندما ينتهي بناء الجسر الجديد فوق النهر.",
+                "zh", "明年新桥终于建好的时候，我们会再见面。",
+                "ja", "川に架かる新しい橋がやっと完成する来年に、また会いましょう。",
+                "ko", "강 위의 새 다리가 마침내 완성되는 내년에 다시 만나요.");
+        for (Map.Entry<String, String> entry : texts.entrySet()) {
+            Assert.assertEquals(entry.getKey(), analyzer.detectLocale(entry.getValue()).getLanguage());
+        }
+        Assert.assertEquals(LocaleDetector.DEFAULT_LOCALE, analyzer.detectLocale("12 345 - 67, 89."));
+        makeFile(texts.get("es"));
+        Assert.assertEquals(new Locale("es", "ES"), analyzer.detectLocale(Paths.get(tmpTestFile)));
+
+        String mixed = "The price was 1,500.5 dollars on Monday, and everyone who came was happy with it.\n\n"
+                + "Цена составила 2,5 рубля в понедельник, и все, кто пришёл, были ею довольны.\n";
+        Assert.assertEquals(List.of("1,500.5", "25"), getObjects(analyzer.analyze(mixed, Locale.US), 3));
+        TextAnalyzer paragraphAnalyzer = new TextAnalyzer();
+        paragraphAnalyzer.paragraphLocales = true;
+        Assert.assertEquals(List.of("1,500.5", "2,5"), getObjects(paragraphAnalyzer.analyze(mixed, Locale.US), 3));
+        StringWriter english = new StringWriter();
+        new CorpusGenerator(Locale.US, CorpusGenerator.Mix.DEFAULT).write(english, 1 << 16, new Random(1));
+        assertSameStatistics(analyzer.analyze(english.toString(), Locale.US),
+                paragraphAnalyzer.analyze(english.toString(), Locale.US));
+    }
+
+    @Test
+    public void checkAsync() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(1);
+        TextAnalyzer analyzer = new TextAnalyzer(pool, StandardCharsets.UTF_8);
+        Path file = Files.createTempFile("async", ".txt");
+        try {
+            new CorpusGenerator(Locale.US, CorpusGenerator.Mix.DEFAULT).write(file, 3 << 20, 1);
+            List<long[]> calls = new ArrayList<>();
+            TextStatistics statistics = analyzer.analyzeAsync(file, Locale.US,
+                    (bytes, tokens) -> calls.add(new long[]{bytes, tokens}), null).get();
+            assertSameStatistics(analyzer.analyze(file, Locale.US), statistics);
+            Assert.assertTrue(calls.size() > 1);
+            for (int i = 1; i < calls.size(); i++) {
+                Assert.assertTrue(calls.get(i)[0] >= calls.get(i - 1)[0] && calls.get(i)[1] >= calls.get(i - 1)[1]);
+            }
+            Assert.assertEquals(Files.size(file), calls.get(calls.size() - 1)[0]);
+            Assert.assertTrue(calls.get(calls.size() - 1)[1] > 0);
+
+            // the only worker is held until the future is set, so the first progress call cancels the analysis
+            CountDownLatch gate = new CountDownLatch(1);
+            pool.execute(() -> {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            List<CompletableFuture<TextStatistics>> cancelled = new ArrayList<>();
+            calls.clear();
+            cancelled.add(analyzer.analyzeAsync(file, Locale.US, (bytes, tokens) -> {
+                calls.add(new long[]{bytes, tokens});
+                cancelled.get(0).cancel(true);
+            }, null));
+            gate.countDown();
+            Assert.assertTrue(pool.awaitQuiescence(10, TimeUnit.SECONDS));
+            Assert.assertTrue(cancelled.get(0).isCancelled());
+            Assert.assertEquals(1, calls.size());
+
+            CountDownLatch timeoutGate = new CountDownLatch(1);
+            pool.execute(() -> {
+                try {
+                    timeoutGate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            calls.clear();
+            CompletableFuture<TextStatistics> timedOut = analyzer.analyzeAsync(file, Locale.US,
+                    (bytes, tokens) -> calls.add(new long[]{bytes, tokens}), Duration.ofMillis(1));
+            Assert.assertTrue(getCause(timedOut) instanceof TimeoutException);
+            timeoutGate.countDown();
+            Assert.assertTrue(pool.awaitQuiescence(10, TimeUnit.SECONDS));
+            Assert.assertEquals(0, calls.size());
+
+            Assert.assertTrue(getCause(analyzer.analyzeAsync(file.resolveSibling(file.getFileName() + ".missing"),
+                    Locale.US, null, null)) instanceof NoSuchFileException);
+        } finally {
+            pool.shutdown();
+            Files.delete(file);
+        }
+
+        CompletableFuture<Void> stopped = new CompletableFuture<>();
+        stopped.cancel(true);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < Progress.CHECK_INTERVAL; i++) {
+            text.append("word ");
+        }
+        try {
+            new Tokenizer(Locale.US).tokenize(text.toString(), createTables(), null, new Progress(stopped, null));
+            Assert.fail();
+        } catch (CancellationException e) {
+            // stopped at the first check
+        }
+    }
+
+    @Test
+    public void checkCompressed() throws Exception {
+        Locale locale = new Locale("ru", "RU");
+        TextAnalyzer analyzer = new TextAnalyzer();
+        Path file = Files.createTempFile("compressed", ".txt");
+        Path gzip = Files.createTempFile("compressed", ".txt.gz");
+        Path zip = Files.createTempFile("compressed", ".zip");
+        Path zstd = Files.createTempFile("compressed", ".zst");
+        Path malformed = Files.createTempFile("compressed", ".zip");
+        try {
+            new CorpusGenerator(locale, CorpusGenerator.Mix.DEFAULT).write(file, 1 << 20, 1);
+            byte[] bytes = Files.readAllBytes(file);
+            try (OutputStream output = new GZIPOutputStream(Files.newOutputStream(gzip))) {
+                output.write(bytes);
+            }
+            // entries which end with line breaks are read as one text
+            int half = bytes.length / 2;
+            while (bytes[half - 1] != '\n') {
+                half++;
+            }
+            try (ZipOutputStream output = new ZipOutputStream(Files.newOutputStream(zip))) {
+                output.putNextEntry(new ZipEntry("first.txt"));
+                output.write(bytes, 0, half);
+                output.putNextEntry(new ZipEntry("empty/"));
+                output.putNextEntry(new ZipEntry("second.txt"));
+                output.write(bytes, half, bytes.length - half);
+            }
+            Files.write(zstd, new byte[]{0x28, (byte) 0xB5, 0x2F, (byte) 0xFD, 0});
+            // a name which is not UTF-8 fails the zip stream with an IllegalArgumentException
+            try (ZipOutputStream output = new ZipOutputStream(Files.newOutputStream(malformed))) {
+                output.putNextEntry(new ZipEntry("a.txt"));
+                output.write(bytes, 0, half);
+            }
+            byte[] malformedBytes = Files.readAllBytes(malformed);
+            malformedBytes[30] = (byte) 0xFF;
+            Files.write(malformed, malformedBytes);
+
+            TextStatistics expected = analyzer.analyze(file, locale);
+            assertSameStatistics(expected, analyzer.analyze(gzip, locale));
+            assertSameStatistics(expected, analyzer.analyze(zip, locale));
+
+            // a line break is put after an entry without one, so the last line isn't glued to the next entry
+            String[] entries = {"Первая запись без перевода строки", "Вторая запись.\n"};
+            for (Charset charset : new Charset[]{StandardCharsets.UTF_8, StandardCharsets.UTF_16LE}) {
+                try (ZipOutputStream output = new ZipOutputStream(Files.newOutputStream(zip))) {
+                    for (int i = 0; i < entries.length; i++) {
+                        output.putNextEntry(new ZipEntry(i + ".txt"));
+                        output.write(entries[i].getBytes(charset));
+                    }
+                }
+                TextAnalyzer charsetAnalyzer = new TextAnalyzer(ForkJoinPool.commonPool(), charset);
+                TextStatistics entriesStatistics = charsetAnalyzer.analyze(zip, locale);
+                assertSameStatistics(analyzer.analyze(entries[0] + "\n" + entries[1], locale), entriesStatistics);
+                Assert.assertEquals(charset.name(), 2, entriesStatistics.getBlockStats()[1].count);
+            }
+            assertSameStatistics(expected, analyzer.analyzeAsync(gzip, locale, null, null).get());
+            Assert.assertEquals(locale, analyzer.detectLocale(gzip));
+            try {
+                analyzer.analyze(zstd, locale);
+                Assert.fail();
+            } catch (IOException e) {
+                // not supported
+            }
+            try {
+                analyzer.analyzeAsync(malformed, locale, null, null).get(10, TimeUnit.SECONDS);
+                Assert.fail();
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof IOException);
+            }
+        } finally {
+            for (Path path : List.of(file, gzip, zip, zstd, malformed)) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Test
+    public void checkDifferential() throws Exception {
+        CorpusGenerator.Mix mix = CorpusGenerator.Mix.parse("numbers=10,currencies=6,dates=6,foreign=8");
+        Locale[] locales = {new Locale("en", "US"), new Locale("ru", "RU"), new Locale("ar", "PS"),
+                new Locale("zh"), new Locale("es", "ES")};
+        for (Locale locale : locales) {
+            CorpusGenerator generator = new CorpusGenerator(locale, mix);
+            Assert.assertEquals(generator.line(new Random(locale.hashCode())),
+                    generator.line(new Random(locale.hashCode())));
+            Path file = Files.createTempFile("differential", ".txt");
+            try {
+                generator.write(file, 1 << 17, locale.hashCode());
+                TextStatistics expected = DifferentialHarness.analyzeReference(file, locale);
+                for (Map.Entry<String, DifferentialHarness.Implementation> entry
+                        : DifferentialHarness.IMPLEMENTATIONS.entrySet()) {
+                    Assert.assertEquals(locale + " " + entry.getKey(), List.of(),
+                            DifferentialHarness.mismatches(expected, entry.getValue().analyze(file, locale)));
+                }
+            } finally {
+                Files.delete(file);
+            }
+        }
+    }
+
+    private static List<String> splitCsv(String row) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < row.length(); i++) {
+            char c = row.charAt(i);
+            if (quoted && c == '"' && i + 1 < row.length() && row.charAt(i + 1) == '"') {
+                field.append(c);
+                i++;
+            } else if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ',' && !quoted) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    private void assertSameStatistics(TextStatistics expected, TextStatistics actual) {
+        for (Map.Entry<String, Integer> entry : ids.entrySet()) {
+            BlockStats expectedStats = expected.getStatistic(expected.objectsCount.get(entry.getValue()), entry.getKey());
+            BlockStats actualStats = actual.getStatistic(actual.objectsCount.get(entry.getValue()), entry.getKey());
+            Assert.assertTrue(entry.getKey(), expectedStats.isEqualTo(actualStats));
+        }
+    }
+
+    private static List<String> getObjects(TextStatistics statistics, int block) {
+        List<String> objects = new ArrayList<>();
+        for (ObjectCount curCount : statistics.objectsCount.get(block).sorted()) {
+            objects.add(curCount.getObject());
+        }
+        return objects;
+    }
+
+    private static List<String> getSentences(String text) {
+        BreakIterator iterator = BreakIterator.getSentenceInstance(Locale.US);
+        iterator.setText(text);
+        List<String> sentences = new ArrayList<>();
+        for (int start = 0, end = iterator.next(); end != BreakIterator.DONE; start = end, end = iterator.next()) {
+            sentences.add(text.substring(start, end));
+        }
+        return sentences;
+    }
+
+    private static Throwable getCause(Future<?> future) throws InterruptedException {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+        return null;
+    }
+
     private boolean isTestFailed(String key, MyTest test) {
         makeFile(test.text);
         TextStatistics textStatistics = new TextStatistics(test.locale, tmpTestFile);
@@ -285,7 +1312,7 @@ public class Tester {
 
     private MyTest answersNumbersToRandomTest(String text, BlockStats answers) {
         answers.minObject = "0";
-        answers.maxObject = Integer.toString(answers.count - 1);
+        answers.maxObject = Long.toString(answers.count - 1);
         answers.objectMinLength = "0";
         if (answers.count < 10) {
             answers.objectMaxLength = "0";
@@ -343,6 +1370,36 @@ public class Tester {
     }
 
 
+    private List<FrequencyTable> createTables() {
+        List<FrequencyTable> tables = new ArrayList<>();
+        for (int i = 0; i < TextStatistics.STATS_COUNT; i++) {
+            tables.add(new FrequencyTable());
+        }
+        return tables;
+    }
+
+    private String generatePrescanText(Locale locale) {
+        Format[] formats = {
+                DateFormat.getDateInstance(DateFormat.FULL, locale),
+                DateFormat.getDateInstance(DateFormat.LONG, locale),
+                DateFormat.getDateInstance(DateFormat.MEDIUM, locale),
+                DateFormat.getDateInstance(DateFormat.SHORT, locale),
+                NumberFormat.getCurrencyInstance(locale),
+                NumberFormat.getNumberInstance(locale)};
+        String[] separators = {" ", "  ", "\t", ", ", ". ", "x", "-", "(", ") ", ".\n"};
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            Format format = formats[random.nextInt(formats.length)];
+            if (format instanceof DateFormat) {
+                text.append(format.format(new Date(random.nextLong() % 4_000_000_000_000L)));
+            } else {
+                text.append(format.format((random.nextInt(2_000_000) - 1_000_000) / 100.0));
+            }
+            text.append(separators[random.nextInt(separators.length)]);
+        }
+        return text.toString();
+    }
+
     private void makeFile(String text) {
         try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(tmpTestFile))) {
             writer.write(text);
@@ -0,0 +1,440 @@
+package ru.ifmo.rain.vorobev.i18n;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.Collator;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long-lived analyzer of texts, which can be shared by threads.
+ * Tokenizers with their iterators and formats are pooled per locale and reused by all analyses,
+ * so no more of them are created than are used at once. Report bundles are loaded once per output locale.
+ * The default locale is never changed.
+ */
+public class TextAnalyzer {
+    /**
+     * Listener of the progress of an asynchronous analysis, which is called on the reading thread after every
+     * chunk of the input and once at the end, so calls never overlap.
+     */
+    public interface ProgressListener {
+        /**
+         * Called with the number of bytes of the file which are read and the number of word tokens which are
+         * analyzed so far. Tokens of the chunks being analyzed are added as they go, so tokens lag behind bytes.
+         */
+        void progress(long bytes, long tokens);
+    }
+
+    private static final String BUNDLE_NAME = "ru.ifmo.rain.vorobev.i18n.stats";
+    /**
+     * Number of objects of a block which are counted exactly before they are added to the sketch.
+     */
+    private static final int SKETCH_BATCH_SIZE = 1 << 16;
+    /**
+     * Number of the first blocks of {@link TextStatistics#STATS}, which are compared by the collator.
+     */
+    private static final int ORDERED_STATS = 3;
+    /**
+     * Number of the first blocks of {@link TextStatistics#STATS}, of which texts are stored in arenas.
+     */
+    private static final int STORED_STATS = 2;
+
+    private final ForkJoinPool pool;
+    private final Charset charset;
+    private final Metrics metrics;
+    private final Map<Locale, Queue<Tokenizer>> tokenizers = new ConcurrentHashMap<>();
+    private final Map<Locale, ResourceBundle> bundles = new ConcurrentHashMap<>();
+    /**
+     * If set, paragraphs after empty lines are tokenized in their own locales, if they are detected and
+     * differ from the input locale, see {@link LocaleDetector}. Objects of all paragraphs are still counted
+     * and ordered as of the input locale.
+     */
+    boolean paragraphLocales = false;
+
+    public TextAnalyzer() {
+        this(ForkJoinPool.commonPool(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Creates an analyzer which reads files in the given charset and analyzes segments of texts on the given pool.
+     */
+    public TextAnalyzer(ForkJoinPool pool, Charset charset) {
+        this(pool, charset, null);
+    }
+
+    /**
+     * Creates an analyzer which measures the stages of all analyses by the metrics, if they are given.
+     */
+    TextAnalyzer(ForkJoinPool pool, Charset charset, Metrics metrics) {
+        this.pool = pool;
+        this.charset = charset;
+        this.metrics = metrics;
+    }
+
+    Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Detects the locale of the file by its first {@value LocaleDetector#SAMPLE_SIZE} bytes, decompressed
+     * if it's a gzip or zip file, see {@link LocaleDetector}.
+     */
+    public Locale detectLocale(Path file) throws IOException {
+        ByteBuffer sample;
+        Decompressor decompressor = Decompressor.open(file, charset);
+        if (decompressor != null) {
+            try (decompressor) {
+                sample = decompressor.read(LocaleDetector.SAMPLE_SIZE);
+            }
+        } else {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                sample = ByteBuffer.allocate((int) Math.min(channel.size(), LocaleDetector.SAMPLE_SIZE));
+                while (sample.hasRemaining() && channel.read(sample) >= 0) {
+                    // read the whole sample
+                }
+            }
+            sample.flip();
+        }
+        // a char cut at the end of the sample is replaced
+        return detectLocale(charset.decode(sample));
+    }
+
+    /**
+     * Detects the locale of the text by its first {@value LocaleDetector#SAMPLE_SIZE} chars.
+     */
+    public Locale detectLocale(CharSequence text) {
+        Metrics.Span detect = metrics == null ? null : metrics.start(null, Metrics.Stage.DETECT);
+        Locale locale = LocaleDetector.detect(text);
+        if (detect != null) {
+            detect.stop(locale, 1);
+        }
+        return locale;
+    }
+
+    public TextStatistics analyze(String text, Locale locale) {
+        try {
+            return new TextStatistics(this, locale, "", count(new LineReader(text), locale));
+        } catch (IOException e) {
+            throw new AssertionError("Reading from a string can't fail", e);
+        }
+    }
+
+    public TextStatistics analyze(Path file, Locale locale) throws IOException {
+        return new TextStatistics(this, locale, file.toString(), count(new LineReader(file, charset), locale));
+    }
+
+    /**
+     * Analyzes the file on the pool, returning the future of the statistics with the block statistics already
+     * computed. The future is completed exceptionally with the error of the analysis, e.g. an {@link IOException}
+     * of reading, and with {@link java.util.concurrent.TimeoutException} if the timeout, if it's given, passes.
+     * The analysis stops shortly after the future is completed by anyone, e.g. cancelled, as reading and
+     * tokenizers check it every line and every {@value Progress#CHECK_INTERVAL} tokens.
+     */
+    public CompletableFuture<TextStatistics> analyzeAsync(Path file, Locale locale, ProgressListener listener,
+                                                          Duration timeout) {
+        CompletableFuture<TextStatistics> future = new CompletableFuture<>();
+        if (timeout != null) {
+            future.orTimeout(timeout.toNanos(), TimeUnit.NANOSECONDS);
+        }
+        Progress progress = new Progress(future, listener);
+        pool.execute(() -> {
+            try {
+                ArrayList<FrequencyTable> objectsCount = createTables();
+                count(new LineReader(file, charset), locale, objectsCount, "", false, null, progress);
+                progress.report();
+                TextStatistics statistics = new TextStatistics(this, locale, file.toString(), objectsCount);
+                statistics.getBlockStats();
+                future.complete(statistics);
+            } catch (Throwable e) {
+                // does nothing if the future is already cancelled or timed out
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Analyzes the file incrementally: only the part of the file after the checkpoint is read, if the checkpoint
+     * file exists and the file still starts with the analyzed prefix, otherwise the whole file is analyzed.
+     * The checkpoint is then moved to the last complete line of the file, so the next analysis of the grown file
+     * reads only the appended part and the last line.
+     */
+    public TextStatistics analyze(Path file, Locale locale, Path checkpointFile) throws IOException {
+        if (Decompressor.detect(file) != null) {
+            throw new IOException("Compressed input can't be analyzed incrementally: " + file);
+        }
+        Checkpoint checkpoint = Checkpoint.read(checkpointFile, locale, charset);
+        long lineEnd;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (checkpoint == null || !checkpoint.matches(channel)) {
+                checkpoint = new Checkpoint(locale, charset);
+            }
+            lineEnd = checkpoint.lastLineEnd(channel, checkpoint.offset, channel.size());
+            if (lineEnd > checkpoint.offset) {
+                String carry = count(new LineReader(file, charset, checkpoint.offset, lineEnd), locale,
+                        checkpoint.objectsCount, checkpoint.carry, true, null, null);
+                checkpoint.moveTo(channel, lineEnd, carry);
+            }
+        }
+        checkpoint.write(checkpointFile);
+
+        ArrayList<FrequencyTable> objectsCount = checkpoint.objectsCount;
+        ArrayList<FrequencyTable> lastCount = createTables();
+        count(new LineReader(file, charset, lineEnd, Long.MAX_VALUE), locale, lastCount, checkpoint.carry, false, null, null);
+        mergeTables(objectsCount, lastCount);
+        return new TextStatistics(this, locale, file.toString(), objectsCount);
+    }
+
+    /**
+     * Analyzes the file in bounded memory: objects are counted exactly by segments, and counts of segments are
+     * added to a {@link Sketch} of every block instead of tables of the whole file. Unique counts are estimated
+     * by HyperLogLog of {@code 2^precision} registers, and frequencies of at most {@code capacity} most frequent
+     * objects of every block are kept, see {@link Sketch} for the error bounds.
+     */
+    public TextStatistics analyzeApproximately(Path file, Locale locale, int precision, int capacity)
+            throws IOException {
+        Sketch[] sketches = new Sketch[TextStatistics.STATS_COUNT];
+        for (int i = 0; i < sketches.length; i++) {
+            sketches[i] = new Sketch(TextStatistics.STATS[i], precision, capacity);
+        }
+        count(new LineReader(file, charset), locale, createTables(), "", false, sketches, null);
+        return new TextStatistics(this, locale, file.toString(), sketches);
+    }
+
+    /**
+     * Splits the input into sentence-aligned segments, analyzes them on the pool and merges
+     * the results in the order of segments, so the result is the same as of the sequential analysis.
+     * Objects counted before a reading error are added to the tables too.
+     */
+    void count(LineReader input, Locale locale, ArrayList<FrequencyTable> objectsCount) throws IOException {
+        count(input, locale, objectsCount, "", false, null, null);
+    }
+
+    /**
+     * Counts objects of the carried text followed by the input. If {@code keepRemainder} is set, the last
+     * unfinished sentences are not counted but returned, so they can be carried to the continuation of the input.
+     * If sketches are given, the tables are added to them and cleared whenever they grow big, and at the end.
+     * If progress is given, it's reported after every chunk, and the analysis stops once it's stopped.
+     */
+    private String count(LineReader input, Locale locale, ArrayList<FrequencyTable> objectsCount,
+                         String carry, boolean keepRemainder, Sketch[] sketches, Progress progress)
+            throws IOException {
+        FrequencyTable linesCount = objectsCount.get(1);
+        storeTables(objectsCount);
+        orderTables(objectsCount, locale);
+        Deque<ForkJoinTask<ArrayList<FrequencyTable>>> segments = new ArrayDeque<>();
+        int maxSegments = 2 * pool.getParallelism();
+        Tokenizer tokenizer = borrowTokenizer(locale);
+        long[] lines = {0};
+
+        try (ChunkReader reader = new ChunkReader(input, locale,
+                line -> {
+                    if (progress != null) {
+                        progress.check();
+                    }
+                    tokenizer.addLine(linesCount, line);
+                    lines[0]++;
+                },
+                (text, boundary) -> !tokenizer.crossesBoundary(text, boundary))) {
+            reader.prepend(carry);
+            while (true) {
+                Metrics.Span read = metrics == null ? null : metrics.start(locale, Metrics.Stage.READ);
+                long readLines = lines[0];
+                String chunk = keepRemainder ? reader.nextStableChunk() : reader.nextChunk();
+                if (read != null) {
+                    read.stop(lines[0] - readLines);
+                }
+                if (chunk == null) {
+                    break;
+                }
+                if (progress != null) {
+                    progress.setBytes(input.position());
+                    progress.report();
+                }
+                int[] paragraphs = reader.paragraphs();
+                segments.add(pool.submit(() -> analyzeSegment(chunk, paragraphs, locale, progress)));
+                if (segments.size() >= maxSegments) {
+                    mergeSegment(objectsCount, segments.poll().join(), sketches, SKETCH_BATCH_SIZE, locale);
+                }
+            }
+            return keepRemainder ? reader.remainder() : "";
+        } finally {
+            // segments of a stopped analysis stop by themselves, so they are not waited for after the first one
+            try {
+                while (!segments.isEmpty()) {
+                    mergeSegment(objectsCount, segments.poll().join(), sketches, SKETCH_BATCH_SIZE, locale);
+                }
+                if (sketches != null) {
+                    mergeSegment(objectsCount, null, sketches, 0, locale);
+                }
+            } finally {
+                releaseTokenizer(locale, tokenizer);
+            }
+        }
+    }
+
+    /**
+     * Merges the tables of the segment, if it's given, and adds the tables which have grown bigger than
+     * {@code minSize} to the sketches, if they are given.
+     */
+    private void mergeSegment(List<FrequencyTable> objectsCount, List<FrequencyTable> segmentCount,
+                              Sketch[] sketches, int minSize, Locale locale) {
+        Metrics.Span merge = metrics == null ? null : metrics.start(locale, Metrics.Stage.MERGE);
+        long tokens = 0;
+        if (segmentCount != null) {
+            for (FrequencyTable table : segmentCount) {
+                tokens += table.size();
+            }
+            mergeTables(objectsCount, segmentCount);
+        }
+        addToSketches(objectsCount, sketches, minSize);
+        if (merge != null) {
+            merge.stop(tokens);
+        }
+    }
+
+    private ArrayList<FrequencyTable> count(LineReader input, Locale locale) throws IOException {
+        ArrayList<FrequencyTable> objectsCount = createTables();
+        count(input, locale, objectsCount);
+        return objectsCount;
+    }
+
+    private Tokenizer borrowTokenizer(Locale locale) {
+        Tokenizer tokenizer = getTokenizers(locale).poll();
+        return tokenizer == null ? new Tokenizer(locale) : tokenizer;
+    }
+
+    private void releaseTokenizer(Locale locale, Tokenizer tokenizer) {
+        getTokenizers(locale).add(tokenizer);
+    }
+
+    private Queue<Tokenizer> getTokenizers(Locale locale) {
+        return tokenizers.computeIfAbsent(locale, l -> new ConcurrentLinkedQueue<>());
+    }
+
+    /**
+     * Returns the report bundle for the locale, falling back to the base bundle but not to the default locale.
+     */
+    ResourceBundle getBundle(Locale locale) {
+        return bundles.computeIfAbsent(locale, l -> ResourceBundle.getBundle(BUNDLE_NAME, l,
+                ResourceBundle.Control.getNoFallbackControl(ResourceBundle.Control.FORMAT_DEFAULT)));
+    }
+
+    static ArrayList<FrequencyTable> createTables() {
+        ArrayList<FrequencyTable> tables = new ArrayList<>();
+        for (int i = 0; i < TextStatistics.STATS_COUNT; i++) {
+            tables.add(new FrequencyTable());
+        }
+        return tables;
+    }
+
+    /**
+     * Tokenizes the segment in the locale, or runs of its paragraphs of the same locale in their locales
+     * if {@link #paragraphLocales} is set.
+     */
+    private ArrayList<FrequencyTable> analyzeSegment(String text, int[] paragraphs, Locale locale,
+                                                     Progress progress) {
+        ArrayList<FrequencyTable> segmentCount = createTables();
+        if (!paragraphLocales) {
+            tokenize(text, locale, segmentCount, progress);
+            return segmentCount;
+        }
+        Metrics.Span detect = metrics == null ? null : metrics.start(locale, Metrics.Stage.DETECT);
+        List<Integer> runStarts = new ArrayList<>(List.of(0));
+        List<Locale> runLocales = new ArrayList<>(List.of(locale));
+        for (int i = 0; i <= paragraphs.length; i++) {
+            int start = i == 0 ? 0 : paragraphs[i - 1];
+            int end = i == paragraphs.length ? text.length() : paragraphs[i];
+            Locale paragraphLocale = LocaleDetector.detect(text, start,
+                    Math.min(end, start + LocaleDetector.SAMPLE_SIZE), locale);
+            if (paragraphLocale == null) {
+                paragraphLocale = locale;
+            }
+            if (!paragraphLocale.equals(runLocales.get(runLocales.size() - 1))) {
+                runStarts.add(start);
+                runLocales.add(paragraphLocale);
+            }
+        }
+        runStarts.add(text.length());
+        if (detect != null) {
+            detect.stop(paragraphs.length + 1);
+        }
+        for (int i = 0; i < runLocales.size(); i++) {
+            if (runStarts.get(i) < runStarts.get(i + 1)) {
+                tokenize(runLocales.size() == 1 ? text : text.substring(runStarts.get(i), runStarts.get(i + 1)),
+                        runLocales.get(i), segmentCount, progress);
+            }
+        }
+        return segmentCount;
+    }
+
+    private void tokenize(String text, Locale locale, ArrayList<FrequencyTable> segmentCount, Progress progress) {
+        Tokenizer tokenizer = borrowTokenizer(locale);
+        try {
+            tokenizer.tokenize(text, segmentCount, metrics, progress);
+        } finally {
+            releaseTokenizer(locale, tokenizer);
+        }
+    }
+
+    /**
+     * Stores texts of sentences and lines of the whole text in arenas, so they don't take the heap however big
+     * the text is. Tables of segments keep strings, which are copied to the arenas as the segments are merged.
+     */
+    static void storeTables(List<FrequencyTable> objectsCount) {
+        for (int i = 0; i < Math.min(STORED_STATS, objectsCount.size()); i++) {
+            if (!objectsCount.get(i).isStored()) {
+                objectsCount.get(i).storeIn(new TextArena());
+            }
+        }
+    }
+
+    /**
+     * Orders sentences, lines and words by the collator of the locale, so their minimal and maximal objects
+     * are kept as they are merged: every new key is compared by the collator with the current extremes only,
+     * and keys are never sorted by it.
+     * Tables of segments are not ordered.
+     */
+    private static void orderTables(List<FrequencyTable> objectsCount, Locale locale) {
+        Collator collator = null;
+        for (int i = 0; i < ORDERED_STATS; i++) {
+            FrequencyTable table = objectsCount.get(i);
+            if (!table.isOrdered()) {
+                if (collator == null) {
+                    collator = Collator.getInstance(locale);
+                }
+                table.orderBy(collator);
+            }
+        }
+    }
+
+    private static void addToSketches(List<FrequencyTable> objectsCount, Sketch[] sketches, int minSize) {
+        if (sketches == null) {
+            return;
+        }
+        for (int i = 0; i < sketches.length; i++) {
+            FrequencyTable table = objectsCount.get(i);
+            if (table.size() > minSize) {
+                sketches[i].add(table);
+                table.clear();
+            }
+        }
+    }
+
+    private void mergeTables(List<FrequencyTable> objectsCount, List<FrequencyTable> segmentCount) {
+        for (int i = 0; i < objectsCount.size(); i++) {
+            objectsCount.get(i).merge(segmentCount.get(i));
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package ru.ifmo.rain.vorobev.i18n;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+
+/**
+ * Append-only store of texts of unique objects in off-heap pages, so long sentences and lines of big texts
+ * take a few direct buffers instead of two strings each on the heap. Pages grow from
+ * {@value #MIN_PAGE_SIZE} to {@value #MAX_PAGE_SIZE} chars, longer texts get pages of their own.
+ * <p>
+ * Every stored object references its page, so clearing the arena doesn't invalidate the objects which are
+ * still referenced, and pages are freed with the last of their objects. The arena is used by one thread.
+ */
+class TextArena {
+    static final int MIN_PAGE_SIZE = 1 << 12;
+    static final int MAX_PAGE_SIZE = 1 << 20;
+
+    private CharBuffer page = null;
+    private int position = 0;
+    private int nextPageSize = MIN_PAGE_SIZE;
+    private long size = 0;
+
+    /**
+     * Stores the original text of the object, and its key unless it's the text lowercased char by char.
+     * The hash must be the hash code of the key.
+     */
+    StoredCount store(CharSequence original, String key, int hash) {
+        boolean isLowerCase = key == null || isLowerCase(key, original);
+        int length = original.length() + (isLowerCase ? 0 : key.length());
+        CharBuffer textPage = allocate(length);
+        int offset = position;
+        for (int i = 0; i < original.length(); i++) {
+            textPage.put(offset + i, original.charAt(i));
+        }
+        if (!isLowerCase) {
+            for (int i = 0; i < key.length(); i++) {
+                textPage.put(offset + original.length() + i, key.charAt(i));
+            }
+        }
+        position += length;
+        size += length;
+        return new StoredCount(textPage, offset, original.length(), isLowerCase ? -1 : key.length(), hash);
+    }
+
+    /**
+     * Stores the text and the key of the count, and copies its count and values. The untrimmed text is
+     * restored from the whitespace around the key, so the key isn't stored if it's the lowercased text.
+     */
+    StoredCount store(ObjectCount curCount) {
+        String key = curCount.getKey();
+        String object = curCount.getObject();
+        int start = 0;
+        while (start < key.length() && key.charAt(start) <= ' ') {
+            start++;
+        }
+        int end = key.length();
+        while (end > start && key.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        CharSequence original = object;
+        if (end - start == object.length() && (start > 0 || end < key.length())) {
+            original = key.substring(0, start) + object + key.substring(end);
+        }
+        StoredCount stored = store(original, key, curCount.keyHash());
+        curCount.copyCounts(stored);
+        return stored;
+    }
+
+    /**
+     * Returns the number of stored chars.
+     */
+    long size() {
+        return size;
+    }
+
+    /**
+     * Starts new pages, the stored objects keep theirs.
+     */
+    void clear() {
+        page = null;
+        position = 0;
+        nextPageSize = MIN_PAGE_SIZE;
+        size = 0;
+    }
+
+    private CharBuffer allocate(int length) {
+        if (page != null && position + length <= page.capacity()) {
+            return page;
+        }
+        if (length > MAX_PAGE_SIZE) {
+            position = 0;
+            return newPage(length);
+        }
+        while (nextPageSize < length) {
+            nextPageSize <<= 1;
+        }
+        page = newPage(nextPageSize);
+        position = 0;
+        nextPageSize = Math.min(nextPageSize << 1, MAX_PAGE_SIZE);
+        return page;
+    }
+
+    private static CharBuffer newPage(int length) {
+        return ByteBuffer.allocateDirect(2 * length).order(ByteOrder.nativeOrder()).asCharBuffer();
+    }
+
+    private static boolean isLowerCase(String key, CharSequence original) {
+        if (key.length() != original.length()) {
+            return false;
+        }
+        for (int i = 0; i < key.length(); i++) {
+            if (key.charAt(i) != ObjectCount.toLowerCase(original.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Count of an object of which the untrimmed original text and, if needed, the key are stored in a page.
+     */
+    static class StoredCount extends ObjectCount {
+        private final CharBuffer page;
+        private final int offset;
+        private final int length;
+        /**
+         * Length of the key stored after the original text, or -1 if the key is the original text lowercased.
+         */
+        private final int keyLength;
+        private final int hash;
+
+        private StoredCount(CharBuffer page, int offset, int length, int keyLength, int hash) {
+            this.page = page;
+            this.offset = offset;
+            this.length = length;
+            this.keyLength = keyLength;
+            this.hash = hash;
+        }
+
+        @Override
+        StoredCount copy() {
+            StoredCount copy = new StoredCount(page, offset, length, keyLength, hash);
+            copyCounts(copy);
+            return copy;
+        }
+
+        @Override
+        String getKey() {
+            char[] chars = new char[keyLength()];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = keyCharAt(i);
+            }
+            return new String(chars);
+        }
+
+        @Override
+        String getObject() {
+            int start = trimStart();
+            char[] chars = new char[trimEnd(start) - start];
+            page.get(offset + start, chars);
+            return new String(chars);
+        }
+
+        @Override
+        int getObjectLength() {
+            int start = trimStart();
+            return trimEnd(start) - start;
+        }
+
+        @Override
+        int keyLength() {
+            return keyLength < 0 ? length : keyLength;
+        }
+
+        @Override
+        char keyCharAt(int index) {
+            return keyLength < 0 ? toLowerCase(page.get(offset + index)) : page.get(offset + length + index);
+        }
+
+        @Override
+        int keyHash() {
+            return hash;
+        }
+
+        @Override
+        boolean hasKey(String otherKey) {
+            if (hash != otherKey.hashCode() || keyLength() != otherKey.length()) {
+                return false;
+            }
+            for (int i = 0; i < otherKey.length(); i++) {
+                if (keyCharAt(i) != otherKey.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Returns the start of the trimmed text, as {@link String#trim} does.
+         */
+        private int trimStart() {
+            int start = 0;
+            while (start < length && page.get(offset + start) <= ' ') {
+                start++;
+            }
+            return start;
+        }
+
+        private int trimEnd(int start) {
+            int end = length;
+            while (end > start && page.get(offset + end - 1) <= ' ') {
+                end--;
+            }
+            return end;
+        }
+    }
+}
@@ -1,194 +1,327 @@
 package ru.ifmo.rain.vorobev.i18n;
 
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.File;
 import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.text.*;
+import java.text.Collator;
+import java.text.MessageFormat;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
 
 public class TextStatistics {
 
     final String nullS = "-";
     final String firstTag = "<html><head><meta charset=\"UTF-8\"/><title>Stats</title></head><body>";
     final String lastTag = "</body></html>";
-    final String[] stats = {"sentences", "lines", "words", "numbers", "currencies", "dates"};
-    ArrayList<Map<String, ObjectCount>> objectsCount;
+    /**
+     * Number of the first blocks, which are found by {@link Tokenizer} itself: sentences, lines and words.
+     */
+    static final int FIRST_EXTRACTED = 3;
+    /**
+     * Extractors of the blocks after the first ones: numbers, currencies, dates and then the blocks of
+     * the providers of {@link Extractor}.
+     */
+    static final List<Extractor> EXTRACTORS = loadExtractors();
+    static final String[] STATS = getNames(EXTRACTORS);
+    final String[] stats = STATS;
+    static final int STATS_COUNT = STATS.length;
+    /**
+     * Blocks of which the most frequent objects are shown.
+     */
+    static final Set<String> TOP_STATS = getTopStats(EXTRACTORS);
+    /**
+     * From the most frequent objects, objects of the same count in the order of keys.
+     */
+    private static final Comparator<ObjectCount> TOP_ORDER = Comparator.comparingLong((ObjectCount curCount) -> -curCount.count)
+            .thenComparing(ObjectCount::compareKeyTo);
+    ArrayList<FrequencyTable> objectsCount;
     Locale inputLocale;
     String inputFile;
+    private final TextAnalyzer analyzer;
+    private BlockStats[] blockStats = null;
+    /**
+     * If set, the report ends with the metrics of the analyzer, see {@link Metrics}.
+     */
+    boolean performanceSection = false;
 
-    private static class ObjectCount {
-        protected String object = null;
-        protected int count = 0;
+    public TextStatistics(String inputStringLocale, String inFile) {
+        this(inputStringLocale, inFile, ForkJoinPool.commonPool());
     }
 
+    public TextStatistics(String inputStringLocale, String inFile, ForkJoinPool pool) {
+        this(inputStringLocale, inFile, pool, StandardCharsets.UTF_8);
+    }
 
-    public TextStatistics(String inputStringLocale, String inFile) {
+    /**
+     * Analyzes the file in the given charset with segments analyzed on the given pool, see {@link TextAnalyzer}.
+     */
+    public TextStatistics(String inputStringLocale, String inFile, ForkJoinPool pool, Charset charset) {
+        analyzer = new TextAnalyzer(pool, charset);
         inputLocale = getLocale(inputStringLocale);
         inputFile = inFile;
-        Map<String, ObjectCount> linesCount = new TreeMap<>();
-        StringBuilder stringBuilder = new StringBuilder();
-
-        try (BufferedReader reader = Files.newBufferedReader(Paths.get(inputFile))) {
-            String curString;
-            while ((curString = reader.readLine()) != null) {
-                stringBuilder.append(curString).append(" ");
-                addToMap(linesCount, curString, inputLocale);
-            }
+        objectsCount = TextAnalyzer.createTables();
+        try {
+            analyzer.count(new LineReader(Paths.get(inputFile), charset), inputLocale, objectsCount);
         } catch (IOException e) {
             System.err.println(("Reading error: " + e.getMessage()));
         }
-        String s = stringBuilder.toString();
-        BreakIterator breakIterator = BreakIterator.getSentenceInstance(inputLocale);
-        Map<String, ObjectCount> sentencesCount = createResultMap(breakIterator, s, inputLocale);
-        breakIterator = BreakIterator.getWordInstance(inputLocale);
-        Map<String, ObjectCount> wordsCount = createResultMap(breakIterator, s, inputLocale);
-        ArrayList<Map<String, ObjectCount>> result = parseComplex(s, inputLocale);
-        Map<String, ObjectCount> numbersCount = result.get(0);
-        Map<String, ObjectCount> currenciesCount = result.get(1);
-        Map<String, ObjectCount> datesCount = result.get(2);
-        objectsCount = new ArrayList<>(Arrays.asList(sentencesCount, linesCount, wordsCount, numbersCount, currenciesCount, datesCount));
+    }
 
+    TextStatistics(TextAnalyzer analyzer, Locale inputLocale, String inputFile, ArrayList<FrequencyTable> objectsCount) {
+        this.analyzer = analyzer;
+        this.inputLocale = inputLocale;
+        this.inputFile = inputFile;
+        this.objectsCount = objectsCount;
+    }
+
+    /**
+     * Creates statistics with the block statistics computed before, e.g. loaded from a {@link Snapshot}.
+     */
+    TextStatistics(TextAnalyzer analyzer, Locale inputLocale, String inputFile, ArrayList<FrequencyTable> objectsCount,
+                   BlockStats[] blockStats) {
+        this(analyzer, inputLocale, inputFile, objectsCount);
+        this.blockStats = blockStats;
+    }
+
+    /**
+     * Creates approximate statistics of the sketches, the report shows error bounds of the estimated figures.
+     */
+    TextStatistics(TextAnalyzer analyzer, Locale inputLocale, String inputFile, Sketch[] sketches) {
+        this(analyzer, inputLocale, inputFile, TextAnalyzer.createTables());
+        blockStats = new BlockStats[STATS_COUNT];
+        for (int i = 0; i < STATS_COUNT; i++) {
+            blockStats[i] = sketches[i].getBlockStats();
+        }
+    }
+
+    /**
+     * Adds counts of the other statistics, objects of these statistics are kept for the keys found in both.
+     */
+    void merge(TextStatistics other) {
+        for (int i = 0; i < STATS_COUNT; i++) {
+            objectsCount.get(i).merge(other.objectsCount.get(i));
+        }
+        blockStats = null;
+    }
+
+    /**
+     * Returns statistics of all blocks, which are computed once for the current counts.
+     */
+    BlockStats[] getBlockStats() {
+        if (blockStats == null) {
+            BlockStats[] blocks = new BlockStats[STATS_COUNT];
+            Metrics metrics = analyzer.getMetrics();
+            for (int i = 0; i < STATS_COUNT; i++) {
+                Metrics.Span span = metrics == null ? null : metrics.start(inputLocale, Metrics.Stage.STATISTICS);
+                blocks[i] = getStatistic(objectsCount.get(i), stats[i]);
+                if (span != null) {
+                    span.stop(objectsCount.get(i).size());
+                }
+            }
+            blockStats = blocks;
+        }
+        return blockStats;
     }
 
     public void createStatistics(String outputStringLocale, String outputFile) {
+        createStatistics(outputStringLocale, outputFile, true);
+    }
+
+    /**
+     * Writes the report to the file, and to the console too if {@code echo} is set.
+     */
+    public void createStatistics(String outputStringLocale, String outputFile, boolean echo) {
+        createStatistics(outputStringLocale, outputFile, echo, List.of(ReportFormat.HTML));
+    }
+
+    /**
+     * Writes the reports of all formats in one pass, the first one is echoed to the console if {@code echo} is set.
+     * A single report is written to the file, several ones to the files of the same name with the extensions
+     * of their formats.
+     */
+    public void createStatistics(String outputStringLocale, String outputFile, boolean echo,
+                                 List<ReportFormat> formats) {
         Locale outputLocale = getLocale(outputStringLocale);
         if (outputLocale == null) {
             return;
         }
-        Locale.setDefault(outputLocale);
-        ResourceBundle bundle = ResourceBundle.getBundle("ru.ifmo.rain.vorobev.i18n.stats");
-        String htmlCode = "";
-        htmlCode = writeHTML(htmlCode, firstTag, false, 0);
-        htmlCode = writeHTML(htmlCode, bundle.getString("file.title") + inputFile, false, 3);
-        htmlCode = writeHTML(htmlCode, bundle.getString("first.title"), false, 4);
-        for (int i = 0; i < 6; i++) {
-            htmlCode = getFirstStatistic(objectsCount.get(i), stats[i], bundle, htmlCode);
-        }
-        htmlCode = writeHTML(htmlCode, "", true, 0);
-        for (int i = 0; i < 6; i++) {
-            BlockStats curBlock = getStatistic(objectsCount.get(i), stats[i]);
-            htmlCode = writeStatisticsToHtml(bundle, stats[i], htmlCode, curBlock);
-        }
-        htmlCode = writeHTML(htmlCode, lastTag, false, 0);
-
-        System.out.println(htmlCode);
-        try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(outputFile))) {
-            writer.write(htmlCode);
+        List<Writer> writers = new ArrayList<>();
+        try {
+            for (ReportFormat format : formats) {
+                Writer writer = Files.newBufferedWriter(Paths.get(formats.size() == 1 ? outputFile
+                        : getReportFile(outputFile, format)));
+                writers.add(echo && writers.isEmpty() ? new EchoWriter(writer, System.out) : writer);
+            }
+            writeReports(outputLocale, formats, writers);
         } catch (IOException e) {
             System.err.println("Writing to html error:" + e);
+        } finally {
+            for (Writer writer : writers) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    System.err.println("Writing to html error:" + e);
+                }
+            }
+        }
+        if (echo) {
+            System.out.println();
         }
     }
 
-    private Map<String, ObjectCount> createResultMap(BreakIterator breakIterator, String text, Locale locale) {
-        Map<String, ObjectCount> objectsCount = new TreeMap<>();
-        breakIterator.setText(text);
-        int curIndex = breakIterator.first();
-        int prevIndex = 0;
-        while (curIndex != BreakIterator.DONE) {
-            String object = text.substring(prevIndex, curIndex);
-            if (isCorrect(object)) {
-                addToMap(objectsCount, object, locale);
+    /**
+     * Replaces the extension of the file name by the one of the format.
+     */
+    static String getReportFile(String file, ReportFormat format) {
+        int dot = file.lastIndexOf('.');
+        int separator = Math.max(file.lastIndexOf('/'), file.lastIndexOf(File.separatorChar));
+        return (dot > separator ? file.substring(0, dot) : file) + "." + format.getName();
+    }
+
+    /**
+     * Writes the HTML report in the output locale to the writer, block by block.
+     */
+    public void writeStatistics(Locale outputLocale, Writer writer) throws IOException {
+        writeReports(outputLocale, List.of(ReportFormat.HTML), List.of(writer));
+    }
+
+    /**
+     * Writes the statistics as JSON, see {@link ReportFormat.Json}.
+     */
+    public void writeJson(Writer writer) throws IOException {
+        writeReports(inputLocale, List.of(ReportFormat.JSON), List.of(writer));
+    }
+
+    /**
+     * Writes the reports of all formats to their writers in one pass over the blocks.
+     */
+    void writeReports(Locale outputLocale, List<ReportFormat> formats, List<Writer> writers) throws IOException {
+        BlockStats[] blocks = getBlockStats();
+        Metrics metrics = analyzer.getMetrics();
+        Metrics.Span span = metrics == null ? null : metrics.start(outputLocale, Metrics.Stage.RENDER);
+        for (int i = 0; i < formats.size(); i++) {
+            formats.get(i).writeHeader(this, outputLocale, writers.get(i));
+        }
+        for (int i = 0; i < STATS_COUNT; i++) {
+            for (int j = 0; j < formats.size(); j++) {
+                formats.get(j).writeBlock(this, outputLocale, i, blocks[i], writers.get(j));
             }
-            prevIndex = curIndex;
-            curIndex = breakIterator.next();
         }
+        if (span != null) {
+            span.stop((long) STATS_COUNT * formats.size());
+        }
+        for (int i = 0; i < formats.size(); i++) {
+            formats.get(i).writeFooter(this, outputLocale, writers.get(i));
+        }
+    }
 
-        return objectsCount;
+    void writeHtmlHeader(Locale outputLocale, Writer writer) throws IOException {
+        ResourceBundle bundle = analyzer.getBundle(outputLocale);
+        BlockStats[] blocks = getBlockStats();
+        writeHTML(writer, firstTag, false, 0);
+        writeHTML(writer, bundle.getString("file.title") + inputFile, false, 3);
+        writeHTML(writer, bundle.getString("first.title"), false, 4);
+        for (int i = 0; i < STATS_COUNT; i++) {
+            writeHTML(writer, getLabel(bundle, outputLocale, "count", stats[i]) + blocks[i].count, true, 0);
+        }
+        writeHTML(writer, "", true, 0);
+        if (blocks[0].uniqueError > 0) {
+            writeHTML(writer, bundle.getString("approximate"), true, 0);
+            writeHTML(writer, "", true, 0);
+        }
     }
 
-    private void addToMap(Map<String, ObjectCount> objectsCount, String object, Locale locale) {
-        ObjectCount curCount = objectsCount.get(object.toLowerCase(locale));
-        if (curCount == null) {
-            curCount = new ObjectCount();
-            curCount.object = object.trim();
+    void writeHtmlFooter(Locale outputLocale, Writer writer) throws IOException {
+        Metrics metrics = analyzer.getMetrics();
+        if (performanceSection && metrics != null) {
+            ResourceBundle bundle = analyzer.getBundle(outputLocale);
+            writeHTML(writer, bundle.getString("performance.title"), true, 4);
+            for (String line : metrics.format(bundle, outputLocale)) {
+                writeHTML(writer, line, true, 0);
+            }
+            writeHTML(writer, "", true, 0);
         }
-        curCount.count++;
-        objectsCount.put(object.toLowerCase(locale), curCount);
+        writeHTML(writer, lastTag, false, 0);
     }
 
-    private String writeHTML(String htmlCode, String s, boolean isLine, int headerLvl) {
+    private void writeHTML(Writer writer, String s, boolean isLine, int headerLvl) throws IOException {
         if (headerLvl > 0) {
             s = "<h" + headerLvl + ">" + s + "</h" + headerLvl + ">";
         } else if (isLine) {
             s = "<p>" + s + "</p>";
         }
-        return htmlCode + s + "\n";
+        writer.write(s);
+        writer.write("\n");
     }
 
-    public BlockStats getStatistic(Map<String, ObjectCount> objectCount, String keyEnd) {
-        BlockStats block = new BlockStats();
+    /**
+     * Objects of extractors which compare values, like numbers, currencies and dates, are compared by the values
+     * which {@link Tokenizer} has parsed from their texts, objects without a value are skipped. Other objects are
+     * compared by the collator of the input locale, see {@link FrequencyTable#orderBy}.
+     * The block is collected in one pass over the table in no particular order, see {@link BlockPass}.
+     */
+    public BlockStats getStatistic(FrequencyTable objectCount, String keyEnd) {
+        boolean byValue = comparesValues(keyEnd);
+        BlockPass pass = new BlockPass(byValue);
+        objectCount.forEach(pass);
+        BlockStats block = pass.block;
         block.unique = objectCount.size();
-        boolean isFirst = true;
-        boolean isNumber = keyEnd.equals("numbers");
-        boolean isCurrency = keyEnd.equals("currencies");
-        boolean isDate = keyEnd.equals("dates");
-
-        NumberFormat numberFormat = NumberFormat.getNumberInstance(inputLocale);
-        if (isCurrency) {
-            numberFormat = NumberFormat.getCurrencyInstance(inputLocale);
-        }
-        Date maxDate = null;
-        Date minDate = null;
-        DateFormat[] dateFormats = new DateFormat[4];
-        dateFormats[0] = DateFormat.getDateInstance(DateFormat.FULL, inputLocale);
-        dateFormats[1] = DateFormat.getDateInstance(DateFormat.LONG, inputLocale);
-        dateFormats[2] = DateFormat.getDateInstance(DateFormat.MEDIUM, inputLocale);
-        dateFormats[3] = DateFormat.getDateInstance(DateFormat.SHORT, inputLocale);
-
-        for (String key : objectCount.keySet()) {
-            String obj = objectCount.get(key).object;
-            int curAmount = objectCount.get(key).count;
-            int curLength = obj.length();
-            if (isFirst) {
-                block.minObject = obj;
-                block.maxObject = obj;
-                block.objectMinLength = obj;
-                block.objectMaxLength = obj;
-            }
-            if (isNumber || isCurrency) {
-                try {
-                    block.minObject = numberFormat.parse(obj).doubleValue() < numberFormat.parse(block.minObject).doubleValue() ? obj : block.minObject;
-                    block.maxObject = numberFormat.parse(obj).doubleValue() > numberFormat.parse(block.maxObject).doubleValue() ? obj : block.maxObject;
-                } catch (ParseException ignored) {
-                }
-            } else if (isDate) {
-                Date curDate;
-                int i = 0;
-                while ((curDate = dateFormats[i].parse(obj, new ParsePosition(0))) == null) {
-                    i += 1;
-                }
-                if (isFirst) {
-                    minDate = curDate;
-                    maxDate = curDate;
-                } else {
-                    if (curDate.before(minDate)) {
-                        block.minObject = obj;
-                        minDate = curDate;
-                    } else if (curDate.after(maxDate)) {
-                        block.maxObject = obj;
-                        maxDate = curDate;
-                    }
+        if (block.count > 0) {
+            // objects are created once per block, as stored objects create them on every request
+            ObjectCount minCount;
+            ObjectCount maxCount;
+            if (!byValue) {
+                if (!objectCount.isOrdered()) {
+                    objectCount.orderBy(Collator.getInstance(inputLocale));
                 }
+                minCount = objectCount.getMin();
+                maxCount = objectCount.getMax();
+            } else if (pass.first.number != null) {
+                minCount = pass.minNumber;
+                maxCount = pass.maxNumber;
+            } else if (pass.first.date != null) {
+                minCount = pass.minDate;
+                maxCount = pass.maxDate;
             } else {
-                block.maxObject = obj;
+                minCount = pass.first;
+                maxCount = pass.first;
             }
-            isFirst = false;
-            block.count += curAmount;
-            block.sumLength += curAmount * curLength;
-            block.objectMinLength = curLength < block.objectMinLength.length() ? obj : block.objectMinLength;
-            block.objectMaxLength = curLength > block.objectMaxLength.length() ? obj : block.objectMaxLength;
-
+            block.minObject = minCount.getObject();
+            block.maxObject = maxCount.getObject();
+            block.objectMinLength = pass.minLength.getObject();
+            block.objectMaxLength = pass.maxLength.getObject();
+        }
+        PriorityQueue<ObjectCount> top = pass.top;
+        block.topObjects = new String[top.size()];
+        block.topCounts = new long[top.size()];
+        for (int i = top.size() - 1; i >= 0; i--) {
+            ObjectCount curCount = top.poll();
+            block.topObjects[i] = curCount.getObject();
+            block.topCounts[i] = curCount.count;
         }
         return block;
 
     }
 
-    private String writeStatisticsToHtml(ResourceBundle bundle, String keyEnd, String htmlCode, BlockStats block) {
+    /**
+     * Checks if the object replaces the chosen one: if it's better, or it's as good and its key is less,
+     * so the first of equally good objects in the order of keys is chosen whatever order objects are passed in.
+     */
+    static boolean isBefore(int better, ObjectCount curCount, ObjectCount chosen) {
+        return better > 0 || better == 0 && curCount.compareKeyTo(chosen) < 0;
+    }
+
+    void writeStatisticsToHtml(Locale outputLocale, String keyEnd, Writer writer, BlockStats block)
+            throws IOException {
+        ResourceBundle bundle = analyzer.getBundle(outputLocale);
         String unique = bundle.getString("unique");
-        if (Locale.getDefault().equals(new Locale("ru", "RU"))) {
+        if (outputLocale.equals(new Locale("ru", "RU"))) {
             if (block.count % 10 == 1 && block.count != 11) {
                 if (keyEnd.equals("words") || keyEnd.equals("sentences") || keyEnd.equals("numbers")) {
                     unique += "ое";
@@ -199,76 +332,126 @@ public class TextStatistics {
                 unique += "ых";
             }
         }
-        htmlCode = writeHTML(htmlCode, bundle.getString("part.title." + keyEnd), true, 4);
-        htmlCode = writeHTML(htmlCode, bundle.getString("part.count." + keyEnd) + block.count + (block.count > 0 ?
-                (" (" + block.unique + " " + unique + ")") : ""), true, 0);
-        htmlCode = writeHTML(htmlCode, bundle.getString("part.first." + keyEnd) + block.minObject, true, 0);
-        htmlCode = writeHTML(htmlCode, bundle.getString("part.last." + keyEnd) + block.maxObject, true, 0);
-        htmlCode = writeHTML(htmlCode, bundle.getString("part.min." + keyEnd) + (block.objectMinLength.equals(nullS) ?
+        writeHTML(writer, getLabel(bundle, outputLocale, "title", keyEnd), true, 4);
+        String uniqueCount = block.uniqueError > 0 ? "≈" + block.unique + " " + unique
+                + String.format(outputLocale, " ±%.1f%%", block.uniqueError * 100) : block.unique + " " + unique;
+        writeHTML(writer, getLabel(bundle, outputLocale, "count", keyEnd) + block.count + (block.count > 0 ?
+                (" (" + uniqueCount + ")") : ""), true, 0);
+        if (TOP_STATS.contains(keyEnd)) {
+            StringJoiner top = new StringJoiner(", ");
+            for (int i = 0; i < block.topObjects.length; i++) {
+                top.add(formatFrequency(block, i));
+            }
+            writeHTML(writer, getLabel(bundle, outputLocale, "top", keyEnd) + (top.length() > 0 ? top : nullS),
+                    true, 0);
+        } else if (block.uniqueError > 0) {
+            writeHTML(writer, bundle.getString("frequent") + (block.topObjects.length > 0
+                    ? formatFrequency(block, 0) : nullS), true, 0);
+        }
+        writeHTML(writer, getLabel(bundle, outputLocale, "first", keyEnd) + block.minObject, true, 0);
+        writeHTML(writer, getLabel(bundle, outputLocale, "last", keyEnd) + block.maxObject, true, 0);
+        writeHTML(writer, getLabel(bundle, outputLocale, "min", keyEnd) + (block.objectMinLength.equals(nullS) ?
                 nullS : block.objectMinLength.length()) + (block.objectMinLength.equals(nullS) ?
                 "" : (" (" + block.objectMinLength + ")")), true, 0);
-        htmlCode = writeHTML(htmlCode, bundle.getString("part.max." + keyEnd) + (block.objectMaxLength.equals(nullS) ?
+        writeHTML(writer, getLabel(bundle, outputLocale, "max", keyEnd) + (block.objectMaxLength.equals(nullS) ?
                 nullS : block.objectMaxLength.length()) + (block.objectMaxLength.equals(nullS) ?
                 "" : (" (" + block.objectMaxLength + ")")), true, 0);
-        htmlCode = writeHTML(htmlCode, bundle.getString("part.mid." + keyEnd) + (block.count > 0 ?
+        writeHTML(writer, getLabel(bundle, outputLocale, "mid", keyEnd) + (block.count > 0 ?
                 ((double) block.sumLength / block.count) : nullS), true, 0);
-        htmlCode = writeHTML(htmlCode, "", true, 0);
-        return htmlCode;
+        StringJoiner histogram = new StringJoiner(", ");
+        int lastBucket = block.lengthHistogram.length - 1;
+        while (lastBucket >= 0 && block.lengthHistogram[lastBucket] == 0) {
+            lastBucket--;
+        }
+        for (int i = 0; i <= lastBucket; i++) {
+            histogram.add(BlockStats.bucketLabel(i) + ": " + block.lengthHistogram[i]);
+        }
+        writeHTML(writer, getLabel(bundle, outputLocale, "lengths", keyEnd) + (lastBucket >= 0 ? histogram : nullS),
+                true, 0);
+        writeHTML(writer, "", true, 0);
     }
 
-
-    private String getFirstStatistic(Map<String, ObjectCount> objectsCount, String keyEnd, ResourceBundle bundle, String htmlCode) {
-        int count = 0;
-        for (String key : objectsCount.keySet()) {
-            count += objectsCount.get(key).count;
+    /**
+     * Returns the report string of the part of the block, or the default one with the display name of
+     * the extractor if the bundle has no strings of the block.
+     */
+    private static String getLabel(ResourceBundle bundle, Locale outputLocale, String part, String keyEnd) {
+        String key = "part." + part + "." + keyEnd;
+        if (bundle.containsKey(key)) {
+            return bundle.getString(key);
         }
-        htmlCode = writeHTML(htmlCode, bundle.getString("part.count." + keyEnd) + count, true, 0);
-        return htmlCode;
+        return MessageFormat.format(bundle.getString("part." + part),
+                getExtractor(keyEnd).getDisplayName(outputLocale));
     }
 
+    private static String formatFrequency(BlockStats block, int index) {
+        long count = block.topCounts[index];
+        return block.topObjects[index] + " (" + count + (block.topError > 0 ? "–" + (count + block.topError) : "") + ")";
+    }
 
-    private ArrayList<Map<String, ObjectCount>> parseComplex(String s, Locale locale) {
-        Map<String, ObjectCount> numberCount = new TreeMap<>();
-        Map<String, ObjectCount> currenciesCount = new TreeMap<>();
-        Map<String, ObjectCount> datesCount = new TreeMap<>();
-        Format[] allFormats = new Format[6];
-        allFormats[0] = DateFormat.getDateInstance(DateFormat.FULL, locale);
-        allFormats[1] = DateFormat.getDateInstance(DateFormat.LONG, locale);
-        allFormats[2] = DateFormat.getDateInstance(DateFormat.MEDIUM, locale);
-        allFormats[3] = DateFormat.getDateInstance(DateFormat.SHORT, locale);
-        allFormats[4] = NumberFormat.getCurrencyInstance(locale);
-        allFormats[5] = NumberFormat.getNumberInstance(locale);
-        for (ParsePosition pos = new ParsePosition(0); pos.getIndex() < s.length(); ) {
-            int index = 0;
-            Date curDate = null;
-            Number curNum = null;
-            int lastPos = pos.getIndex();
-            while (index < 6 && (index < 4 && ((curDate = ((DateFormat) allFormats[index]).parse(s, pos)) == null)
-                    || (index >= 4 && (curNum = ((NumberFormat) allFormats[index]).parse(s, pos)) == null))) {
-                index += 1;
+
+    /**
+     * Returns the extractor of the block, or {@code null} for sentences, lines and words.
+     */
+    static Extractor getExtractor(String keyEnd) {
+        for (Extractor extractor : EXTRACTORS) {
+            if (extractor.getName().equals(keyEnd)) {
+                return extractor;
             }
-            if (curDate != null) {
-                addToMap(datesCount, ((DateFormat) allFormats[index]).format(curDate), locale);
-            } else if (curNum != null) {
-                if (index == 4) {
-                    addToMap(currenciesCount, s.substring(lastPos, pos.getIndex()), locale);
-                } else {
-                    addToMap(numberCount, allFormats[index].format(curNum), locale);
-                }
+        }
+        return null;
+    }
+
+    /**
+     * Checks if objects of the block are compared by their values, see {@link Extractor#comparesValues()}.
+     */
+    static boolean comparesValues(String keyEnd) {
+        Extractor extractor = getExtractor(keyEnd);
+        return extractor != null && extractor.comparesValues();
+    }
+
+    /**
+     * Loads the providers of {@link Extractor} after the standard extractors,
+     * a provider of a block which is already registered is skipped.
+     */
+    private static List<Extractor> loadExtractors() {
+        List<Extractor> extractors = new ArrayList<>(List.of(
+                FormatExtractor.NUMBERS, FormatExtractor.CURRENCIES, FormatExtractor.DATES));
+        Set<String> names = new HashSet<>(List.of("sentences", "lines", "words"));
+        for (Extractor extractor : extractors) {
+            names.add(extractor.getName());
+        }
+        for (Extractor extractor : ServiceLoader.load(Extractor.class)) {
+            if (names.add(extractor.getName())) {
+                extractors.add(extractor);
             } else {
-                pos.setIndex(pos.getIndex() + 1);
+                System.err.println("Block " + extractor.getName() + " is already registered, "
+                        + extractor.getClass().getName() + " is skipped");
             }
         }
-        return new ArrayList<>(List.of(numberCount, currenciesCount, datesCount));
+        return Collections.unmodifiableList(extractors);
     }
 
+    private static String[] getNames(List<Extractor> extractors) {
+        String[] names = new String[FIRST_EXTRACTED + extractors.size()];
+        names[0] = "sentences";
+        names[1] = "lines";
+        names[2] = "words";
+        for (int i = 0; i < extractors.size(); i++) {
+            names[FIRST_EXTRACTED + i] = extractors.get(i).getName();
+        }
+        return names;
+    }
 
-    private boolean isCorrect(String object) {
-        object = object.trim();
-        return !((object.length() == 1 && !Character.isLetterOrDigit(object.charAt(0))) || object.isEmpty());
+    private static Set<String> getTopStats(List<Extractor> extractors) {
+        Set<String> names = new HashSet<>(Set.of("words"));
+        for (Extractor extractor : extractors) {
+            names.add(extractor.getName());
+        }
+        return Collections.unmodifiableSet(names);
     }
 
-    private Locale getLocale(String s) {
+    static Locale getLocale(String s) {
         String[] splitted = s.split("_");
         if (splitted.length == 1) {
             return new Locale(splitted[0]);
@@ -281,4 +464,62 @@ public class TextStatistics {
         return null;
     }
 
+    /**
+     * Collects a block in one pass over the unordered counts of a table: count, lengths and the most frequent
+     * objects by a heap of {@link BlockStats#TOP_SIZE} objects. Objects of values are chosen as if the counts
+     * were passed in the order of keys: values of the kind of the least key are compared, numbers or dates,
+     * and if the least key has no value, it is both the minimal and the maximal object.
+     */
+    private static class BlockPass implements Consumer<ObjectCount> {
+        final BlockStats block = new BlockStats();
+        final PriorityQueue<ObjectCount> top = new PriorityQueue<>(BlockStats.TOP_SIZE + 1, TOP_ORDER.reversed());
+        private final boolean byValue;
+        ObjectCount minLength = null;
+        ObjectCount maxLength = null;
+        ObjectCount first = null;
+        ObjectCount minNumber = null;
+        ObjectCount maxNumber = null;
+        ObjectCount minDate = null;
+        ObjectCount maxDate = null;
+
+        BlockPass(boolean byValue) {
+            this.byValue = byValue;
+        }
+
+        @Override
+        public void accept(ObjectCount curCount) {
+            long curAmount = curCount.count;
+            int curLength = curCount.getObjectLength();
+            block.count += curAmount;
+            block.sumLength += curAmount * curLength;
+            block.lengthHistogram[BlockStats.lengthBucket(curLength)] += curAmount;
+            if (top.size() < BlockStats.TOP_SIZE) {
+                top.add(curCount);
+            } else if (TOP_ORDER.compare(curCount, top.peek()) < 0) {
+                top.poll();
+                top.add(curCount);
+            }
+            minLength = minLength == null || isBefore(minLength.getObjectLength() - curLength, curCount, minLength)
+                    ? curCount : minLength;
+            maxLength = maxLength == null || isBefore(curLength - maxLength.getObjectLength(), curCount, maxLength)
+                    ? curCount : maxLength;
+            if (!byValue) {
+                return;
+            }
+            first = first == null || curCount.compareKeyTo(first) < 0 ? curCount : first;
+            if (curCount.number != null) {
+                double value = curCount.number.doubleValue();
+                minNumber = minNumber == null || isBefore(Double.compare(minNumber.number.doubleValue(), value),
+                        curCount, minNumber) ? curCount : minNumber;
+                maxNumber = maxNumber == null || isBefore(Double.compare(value, maxNumber.number.doubleValue()),
+                        curCount, maxNumber) ? curCount : maxNumber;
+            } else if (curCount.date != null) {
+                long time = curCount.date.getTime();
+                minDate = minDate == null || isBefore(Long.compare(minDate.date.getTime(), time), curCount, minDate)
+                        ? curCount : minDate;
+                maxDate = maxDate == null || isBefore(Long.compare(time, maxDate.date.getTime()), curCount, maxDate)
+                        ? curCount : maxDate;
+            }
+        }
+    }
 }
@@ -0,0 +1,234 @@
+package ru.ifmo.rain.vorobev.i18n;
+
+import java.text.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Extracts sentences, words and objects of all {@link Extractor}s, like numbers, currencies and dates,
+ * from a text in one traversal. The text is walked by word boundaries, sentence boundaries are taken in the same loop,
+ * and objects are recognized at every position after the previous match, as the original parsing did,
+ * also inside of words (e.g. "xMay 25, 2020" holds a date), but only where {@link Prescanner} finds
+ * that a date, a currency or a number can start, so most positions are rejected by a table lookup.
+ * Not thread-safe, every thread should use its own tokenizer.
+ */
+class Tokenizer {
+    static final int COMPLEX_MAX_LENGTH = 64;
+
+    private final Locale locale;
+    private final BreakIterator sentenceIterator;
+    private final BreakIterator wordIterator;
+    /**
+     * Recognizers of the providers of {@link Extractor} followed by the ones of dates, currencies and numbers,
+     * in the order in which they are tried, and the indices of their blocks.
+     */
+    private final Extractor.Recognizer[] recognizers;
+    private final int[] recognizerStats;
+    private final int providers;
+    private final Prescanner prescanner;
+    private final ParsePosition pos = new ParsePosition(0);
+
+    Tokenizer(Locale locale) {
+        this(locale, true);
+    }
+
+    /**
+     * Creates a tokenizer which checks positions with {@link Prescanner} before parsing dates, currencies and
+     * numbers at them, if {@code prescan} is set. Results are the same in both modes. Recognizers of providers
+     * check positions themselves.
+     */
+    Tokenizer(Locale locale, boolean prescan) {
+        this.locale = locale;
+        sentenceIterator = BreakIterator.getSentenceInstance(locale);
+        wordIterator = BreakIterator.getWordInstance(locale);
+        List<Extractor> extractors = TextStatistics.EXTRACTORS;
+        List<Extractor> order = new ArrayList<>(extractors.subList(3, extractors.size()));
+        order.addAll(List.of(FormatExtractor.DATES, FormatExtractor.CURRENCIES, FormatExtractor.NUMBERS));
+        recognizers = new Extractor.Recognizer[order.size()];
+        recognizerStats = new int[order.size()];
+        for (int i = 0; i < recognizers.length; i++) {
+            recognizers[i] = order.get(i).newRecognizer(locale);
+            recognizerStats[i] = TextStatistics.FIRST_EXTRACTED + extractors.indexOf(order.get(i));
+        }
+        providers = recognizers.length - 3;
+        Format[] dateFormats = ((FormatExtractor.FormatRecognizer) recognizers[providers]).formats;
+        Format currencyFormat = ((FormatExtractor.FormatRecognizer) recognizers[providers + 1]).formats[0];
+        Format numberFormat = ((FormatExtractor.FormatRecognizer) recognizers[providers + 2]).formats[0];
+        prescanner = prescan ? new Prescanner(Arrays.copyOf(dateFormats, dateFormats.length, DateFormat[].class),
+                new NumberFormat[]{(NumberFormat) currencyFormat, (NumberFormat) numberFormat}) : null;
+    }
+
+    /**
+     * Adds all objects of the text to the tables, which are indexed as {@link TextStatistics#stats}.
+     */
+    void tokenize(String text, List<FrequencyTable> objectsCount) {
+        tokenize(text, objectsCount, null);
+    }
+
+    /**
+     * Adds all objects of the text to the tables, measuring the passes by the metrics if they are given.
+     */
+    void tokenize(String text, List<FrequencyTable> objectsCount, Metrics metrics) {
+        tokenize(text, objectsCount, metrics, null);
+    }
+
+    /**
+     * Adds all objects of the text to the tables, adding word tokens to the progress, if it's given,
+     * and stopping with {@link java.util.concurrent.CancellationException} once the analysis is stopped.
+     */
+    void tokenize(String text, List<FrequencyTable> objectsCount, Metrics metrics, Progress progress) {
+        Metrics.Clock clock = metrics == null ? null : metrics.startClock(locale);
+        if (clock != null) {
+            clock.switchTo(Metrics.Stage.WORDS);
+        }
+        FrequencyTable sentencesCount = objectsCount.get(0);
+        FrequencyTable wordsCount = objectsCount.get(2);
+        sentenceIterator.setText(text);
+        wordIterator.setText(text);
+        int sentenceStart = 0;
+        int sentenceEnd = sentenceIterator.next();
+        int complexEnd = 0;
+        int prevIndex = 0;
+        int curIndex = wordIterator.next();
+        int tokens = 0;
+        while (curIndex != BreakIterator.DONE) {
+            if (clock != null) {
+                clock.count(Metrics.Stage.WORDS);
+            }
+            if (progress != null && ++tokens == Progress.CHECK_INTERVAL) {
+                progress.addTokens(tokens);
+                tokens = 0;
+                progress.check();
+            }
+            addIfCorrect(wordsCount, text.substring(prevIndex, curIndex));
+            for (int i = Math.max(prevIndex, complexEnd); i < curIndex; i++) {
+                boolean standard = mayStart(text, i);
+                if (!standard && providers == 0) {
+                    continue;
+                }
+                if (clock != null) {
+                    clock.switchTo(Metrics.Stage.PARSE);
+                    clock.count(Metrics.Stage.PARSE);
+                }
+                int end = parseComplex(text, i, objectsCount, standard);
+                if (end > i) {
+                    complexEnd = end;
+                    i = end - 1;
+                }
+            }
+            if (clock != null && sentenceEnd != BreakIterator.DONE && sentenceEnd <= curIndex) {
+                clock.switchTo(Metrics.Stage.SENTENCES);
+            }
+            while (sentenceEnd != BreakIterator.DONE && sentenceEnd <= curIndex) {
+                if (clock != null) {
+                    clock.count(Metrics.Stage.SENTENCES);
+                }
+                addIfCorrect(sentencesCount, text.substring(sentenceStart, sentenceEnd));
+                sentenceStart = sentenceEnd;
+                sentenceEnd = sentenceIterator.next();
+            }
+            if (clock != null) {
+                clock.switchTo(Metrics.Stage.WORDS);
+            }
+            prevIndex = curIndex;
+            curIndex = wordIterator.next();
+        }
+        if (clock != null) {
+            clock.switchTo(Metrics.Stage.SENTENCES);
+        }
+        while (sentenceEnd != BreakIterator.DONE) {
+            if (clock != null) {
+                clock.count(Metrics.Stage.SENTENCES);
+            }
+            addIfCorrect(sentencesCount, text.substring(sentenceStart, sentenceEnd));
+            sentenceStart = sentenceEnd;
+            sentenceEnd = sentenceIterator.next();
+        }
+        if (progress != null) {
+            progress.addTokens(tokens);
+        }
+        if (clock != null) {
+            clock.stop();
+        }
+    }
+
+    /**
+     * Tries to recognize an object of the providers, a date, a currency or a number at the given index,
+     * in this order. Returns the index after the recognized object or {@code -1} if there is none.
+     */
+    int parseComplex(String s, int start, List<FrequencyTable> objectsCount) {
+        return parseComplex(s, start, objectsCount, true);
+    }
+
+    /**
+     * Tries only the recognizers of providers unless {@code standard} is set.
+     */
+    private int parseComplex(String s, int start, List<FrequencyTable> objectsCount, boolean standard) {
+        pos.setIndex(start);
+        int end = standard ? recognizers.length : providers;
+        for (int i = 0; i < end; i++) {
+            String object = recognizers[i].recognize(s, pos);
+            if (object != null) {
+                addObject(objectsCount.get(recognizerStats[i]), object, recognizers[i]);
+                return pos.getIndex();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Values are parsed once for every new object from the stored text, not taken from the source text,
+     * so they are the same as the statistics would get by parsing the objects.
+     */
+    private void addObject(FrequencyTable objectsCount, String object, Extractor.Recognizer recognizer) {
+        ObjectCount curCount = addToMap(objectsCount, object, locale);
+        if (curCount.count == 1) {
+            curCount.setValue(recognizer.getValue(curCount.getObject()));
+        }
+    }
+
+    private boolean mayStart(String s, int index) {
+        return prescanner == null || prescanner.mayStart(s, index);
+    }
+
+    /**
+     * Checks if an object starting shortly before the boundary goes through it,
+     * as some date formats contain sentence terminators (e.g. "5. Mai 2020").
+     */
+    boolean crossesBoundary(String s, int boundary) {
+        for (int start = Math.max(0, boundary - COMPLEX_MAX_LENGTH); start < boundary; start++) {
+            int end = mayStart(s, start) ? recognizers.length : providers;
+            for (int i = 0; i < end; i++) {
+                ParsePosition pos = new ParsePosition(start);
+                if (recognizers[i].recognize(s, pos) != null) {
+                    if (pos.getIndex() > boundary) {
+                        return true;
+                    }
+                    break;
+                }
+            }
+        }
+        return false;
+    }
+
+    void addLine(FrequencyTable linesCount, CharSequence line) {
+        linesCount.add(line, locale);
+    }
+
+    private void addIfCorrect(FrequencyTable objectsCount, String object) {
+        if (isCorrect(object)) {
+            addToMap(objectsCount, object, locale);
+        }
+    }
+
+    private static ObjectCount addToMap(FrequencyTable objectsCount, String object, Locale locale) {
+        return objectsCount.add(object.toLowerCase(locale), object);
+    }
+
+    private static boolean isCorrect(String object) {
+        object = object.trim();
+        return !((object.length() == 1 && !Character.isLetterOrDigit(object.charAt(0))) || object.isEmpty());
+    }
+}